@@ -3,26 +3,41 @@ package uniapp;
 import uniapp.model.EnrolledSubject;
 import uniapp.model.Student;
 import uniapp.model.Subject;
+import uniapp.repo.RecoveryReport;
+import uniapp.repo.StorageEngine;
 import uniapp.repo.StudentRepository;
-import uniapp.repo.SubjectRepository;
+import uniapp.repo.StudentStore;
+import uniapp.repo.StudentSnapshot;
+import uniapp.repo.SubjectStore;
 import uniapp.service.AdminService;
 import uniapp.service.AuthService;
 import uniapp.service.AdminAuthService;
+import uniapp.service.ImportResult;
+import uniapp.service.Report;
 import uniapp.service.StudentService;
 import uniapp.service.StudentAuthService;
 import uniapp.util.IdGenerator;
 import uniapp.util.Validator;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 
 public class CLIUniApp {
+    private static final int STUDENT_PAGE_SIZE = 20;
+
     public static void main(String[] args) {
         File base = new File("uniapp/data");
-        StudentRepository sRepo = new StudentRepository(new File(base, "students.data"));
-        SubjectRepository subjRepo = new SubjectRepository(new File(base, "subjects.data"));
+        // -Duniapp.storage=text|log|memory|binary|compressed|columnar; log by default: a write costs the changed record or field
+        // -Duniapp.shards=N splits the text and log engines over students-0..N-1.data
+        StorageEngine engine = StorageEngine.fromConfig();
+        SubjectStore subjRepo = engine.openSubjects(base);
+        StudentStore sRepo = engine.openStudents(base, subjRepo);
         IdGenerator ids = new IdGenerator(0, 0, 0);
         AuthService auth = new AuthService(sRepo, ids);
         StudentAuthService studentAuth = new StudentAuthService(new File(base, "student_auth.data"));
@@ -41,6 +56,12 @@ public class CLIUniApp {
 
         Scanner sc = new Scanner(System.in);
         System.out.println("Welcome to CLIUniApp");
+        System.out.println("Storage engine: " + engine + " " + sRepo.capabilities());
+        if (sRepo instanceof StudentRepository) {
+            for (RecoveryReport report : ((StudentRepository) sRepo).recoveryReports()) {
+                if (!report.isClean()) System.out.println("Recovered " + report);
+            }
+        }
         loop:
         while (true) {
             System.out.println("1) Register  2) Login  3) Forgot/Reset Password  0) Exit");
@@ -105,7 +126,7 @@ public class CLIUniApp {
                             if (adminAuth.isLocked()) {
                                 System.out.println("Admin account locked. Try later.");
                             } else if (adminAuth.login(identifier, lpw)) {
-                                adminMenu(sc, adminService, adminAuth);
+                                adminMenu(sc, adminService, adminAuth, auth);
                                 handled = true;
                             } else {
                                 // not admin, continue to try student
@@ -250,16 +271,14 @@ public class CLIUniApp {
         }
     }
 
-    private static void adminMenu(Scanner sc, AdminService adminService, AdminAuthService adminAuth) {
+    private static void adminMenu(Scanner sc, AdminService adminService, AdminAuthService adminAuth, AuthService auth) {
         while (true) {
-            System.out.println("Admin Menu: 1) List students 2) Remove student 3) Clear students 4) List subjects 5) Add subject 6) Remove subject 7) Group by Grade 8) PASS/FAIL 9) Export CSV 10) Change Admin Password 0) Back");
+            System.out.println("Admin Menu: 1) List students 2) Remove student 3) Clear students 4) List subjects 5) Add subject 6) Remove subject 7) Group by Grade 8) PASS/FAIL 9) Export CSV 10) Change Admin Password 11) Import Students CSV 12) Subject roster 13) Import Subjects CSV 0) Back");
             String c = sc.nextLine().trim();
             try {
                 switch (c) {
                     case "1":
-                        for (Student s : adminService.viewAllStudents()) {
-                            System.out.println(s.getId() + " | " + s.getName() + " | " + s.getEmail());
-                        }
+                        listStudents(sc, adminService);
                         break;
                     case "2":
                         System.out.print("Student ID: ");
@@ -304,7 +323,9 @@ public class CLIUniApp {
                         System.out.println("Removed.");
                         break;
                     case "7":
-                        java.util.Map<uniapp.model.Grade, java.util.List<uniapp.model.Student>> gmap = adminService.groupByGrade();
+                        Report<java.util.Map<uniapp.model.Grade, java.util.List<uniapp.model.Student>>> grades = adminService.gradeReport();
+                        java.util.Map<uniapp.model.Grade, java.util.List<uniapp.model.Student>> gmap = grades.getValue();
+                        System.out.println("(snapshot version " + grades.getVersion() + ")");
                         for (uniapp.model.Grade g : uniapp.model.Grade.values()) {
                             System.out.println("== " + g + " ==");
                             for (Student s : gmap.get(g)) {
@@ -313,7 +334,9 @@ public class CLIUniApp {
                         }
                         break;
                     case "8":
-                        java.util.Map<String, java.util.List<Student>> pf = adminService.categorizePassFail();
+                        Report<java.util.Map<String, java.util.List<Student>>> passFail = adminService.passFailReport();
+                        java.util.Map<String, java.util.List<Student>> pf = passFail.getValue();
+                        System.out.println("(snapshot version " + passFail.getVersion() + ")");
                         System.out.println("== PASS ==");
                         for (Student s : pf.get("PASS")) System.out.println("  " + s.getId() + " | " + s.getName());
                         System.out.println("== FAIL ==");
@@ -333,6 +356,34 @@ public class CLIUniApp {
                         adminAuth.changePassword(cpw, npw);
                         System.out.println("Admin password changed.");
                         break;
+                    case "11":
+                        System.out.print("CSV file (name,email,password): ");
+                        String path = sc.nextLine().trim();
+                        ImportResult result;
+                        try (Reader in = new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8)) {
+                            result = auth.importStudents(in);
+                        }
+                        System.out.println(result);
+                        for (String err : result.getErrors()) System.out.println("  " + err);
+                        break;
+                    case "12":
+                        System.out.print("Subject ID: ");
+                        Integer sub = tryParseInt(sc.nextLine().trim());
+                        if (sub == null) { System.out.println("Invalid number"); break; }
+                        java.util.List<Student> roster = adminService.viewRoster(sub);
+                        System.out.println("== Subject " + sub + ": " + roster.size() + " enrolled ==");
+                        for (Student s : roster) System.out.println("  " + s.getId() + " | " + s.getName());
+                        break;
+                    case "13":
+                        System.out.print("CSV file (id,code,title): ");
+                        String subjectsPath = sc.nextLine().trim();
+                        ImportResult subjectsResult;
+                        try (Reader in = new InputStreamReader(new FileInputStream(subjectsPath), StandardCharsets.UTF_8)) {
+                            subjectsResult = adminService.importSubjects(in);
+                        }
+                        System.out.println(subjectsResult);
+                        for (String err : subjectsResult.getErrors()) System.out.println("  " + err);
+                        break;
                     case "0":
                         return;
                     default:
@@ -344,16 +395,29 @@ public class CLIUniApp {
         }
     }
 
+    private static void listStudents(Scanner sc, AdminService adminService) {
+        String afterId = null;
+        while (true) {
+            List<Student> page = adminService.pageStudents(afterId, STUDENT_PAGE_SIZE);
+            for (Student s : page) {
+                System.out.println(s.getId() + " | " + s.getName() + " | " + s.getEmail());
+            }
+            if (page.size() < STUDENT_PAGE_SIZE) return;
+            System.out.print("n) Next page  (Enter to stop): ");
+            if (!"n".equalsIgnoreCase(sc.nextLine().trim())) return;
+            afterId = page.get(page.size() - 1).getId();
+        }
+    }
+
     private static void exportCsv(AdminService adminService) {
         java.io.File outDir = new java.io.File("uniapp/exports");
         if (!outDir.exists()) outDir.mkdirs();
         java.io.File studentsCsv = new java.io.File(outDir, "students.csv");
         try (java.io.PrintWriter pw = new java.io.PrintWriter(studentsCsv, java.nio.charset.StandardCharsets.UTF_8)) {
             pw.println("studentId,name,email,numEnrolments");
-            for (Student s : adminService.viewAllStudents()) {
-                pw.println(s.getId() + "," + s.getName() + "," + s.getEmail() + "," + s.getEnrolments().size());
-            }
-            System.out.println("Exported: " + studentsCsv.getAbsolutePath());
+            StudentSnapshot snapshot = adminService.snapshot();
+            snapshot.forEach(s -> pw.println(s.getId() + "," + s.getName() + "," + s.getEmail() + "," + s.getEnrolments().size()));
+            System.out.println("Exported: " + studentsCsv.getAbsolutePath() + " (snapshot version " + snapshot.getVersion() + ")");
         } catch (Exception ex) {
             System.out.println("Export failed: " + ex.getMessage());
         }
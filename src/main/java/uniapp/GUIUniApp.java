@@ -4,8 +4,10 @@ import javafx.application.Application;
 import javafx.stage.Stage;
 import uniapp.fx.ViewLoader;
 import uniapp.model.Student;
-import uniapp.repo.StudentRepository;
-import uniapp.repo.SubjectRepository;
+import uniapp.repo.StorageEngine;
+import uniapp.repo.StudentStore;
+import uniapp.repo.SubjectStore;
+import uniapp.repo.WriteBehindStudentStore;
 import uniapp.service.AdminAuthService;
 import uniapp.service.AuthService;
 import uniapp.service.StudentAuthService;
@@ -19,7 +21,9 @@ import java.io.File;
  * GUI UniApp - JavaFX version of the University Application
  */
 public class GUIUniApp extends Application {
-    
+    // queues student writes off the FX thread when enabled; flushed when the app stops
+    private WriteBehindStudentStore writeBehind;
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -28,8 +32,15 @@ public class GUIUniApp extends Application {
     public void start(Stage primaryStage) throws Exception {
         // Initialize repositories and services (same as CLIUniApp)
         File base = new File("uniapp/data");
-        StudentRepository sRepo = new StudentRepository(new File(base, "students.data"));
-        SubjectRepository subjRepo = new SubjectRepository(new File(base, "subjects.data"));
+        // -Duniapp.storage=text|log|memory|binary|compressed|columnar; log by default: a write costs the changed record or field
+        // -Duniapp.shards=N splits the text and log engines over students-0..N-1.data
+        StorageEngine engine = StorageEngine.fromConfig();
+        SubjectStore subjRepo = engine.openSubjects(base);
+        StudentStore stored = engine.openStudents(base, subjRepo);
+        // -Duniapp.writeBehind=true queues student writes off the FX thread; off by default because it gives up
+        // durable writes and cross-process visibility until the queue is flushed
+        if (Boolean.parseBoolean(System.getProperty("uniapp.writeBehind", "false"))) writeBehind = new WriteBehindStudentStore(stored);
+        StudentStore sRepo = writeBehind != null ? writeBehind : stored;
         IdGenerator ids = new IdGenerator(0, 0, 0);
         AuthService auth = new AuthService(sRepo, ids);
         StudentAuthService studentAuth = new StudentAuthService(new File(base, "student_auth.data"));
@@ -61,4 +72,9 @@ public class GUIUniApp extends Application {
         () -> new uniapp.controller.LoginController(studentService, subjRepo, auth, adminAuth, 
                                            adminService, sRepo, ids));
     }
-}
\ No newline at end of file
+
+    @Override
+    public void stop() {
+        if (writeBehind != null) writeBehind.close();
+    }
+}
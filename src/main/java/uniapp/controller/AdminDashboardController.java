@@ -9,11 +9,13 @@ import uniapp.fx.Controller;
 import uniapp.model.Grade;
 import uniapp.model.Student;
 import uniapp.model.Subject;
-import uniapp.repo.StudentRepository;
-import uniapp.repo.SubjectRepository;
+import uniapp.repo.StudentStore;
+import uniapp.repo.SubjectStore;
 import uniapp.service.AdminService;
 import uniapp.util.IdGenerator;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 
@@ -22,9 +24,11 @@ import java.util.Map;
  */
 public class AdminDashboardController extends Controller<Object> {
 
+    private static final int STUDENT_PAGE_SIZE = 50;
+
     private final AdminService adminService;
-    private final StudentRepository studentRepo;
-    private final SubjectRepository subjectRepo;
+    private final StudentStore studentRepo;
+    private final SubjectStore subjectRepo;
     private final IdGenerator idGenerator;
 
     @FXML private Label welcomeLabel;
@@ -35,6 +39,9 @@ public class AdminDashboardController extends Controller<Object> {
     @FXML private TableColumn<Student, String> studentNameColumn;
     @FXML private TableColumn<Student, String> studentEmailColumn;
     @FXML private TableColumn<Student, Integer> enrollmentCountColumn;
+    @FXML private Button prevPageButton;
+    @FXML private Button nextPageButton;
+    @FXML private Label pageLabel;
 
     // Subjects Tab
     @FXML private TableView<Subject> subjectsTable;
@@ -48,11 +55,15 @@ public class AdminDashboardController extends Controller<Object> {
     private ObservableList<Student> studentsList;
     private ObservableList<Subject> subjectsList;
 
+    // Keyset paging state: the id the current page starts after ("" = first page) and the keys of earlier pages
+    private String pageAfterId = "";
+    private final Deque<String> previousPageKeys = new ArrayDeque<>();
+
     /**
      * Constructor - inject dependencies
      */
-    public AdminDashboardController(AdminService adminService, StudentRepository studentRepo,
-                                   SubjectRepository subjectRepo, IdGenerator idGenerator) {
+    public AdminDashboardController(AdminService adminService, StudentStore studentRepo,
+                                   SubjectStore subjectRepo, IdGenerator idGenerator) {
         this.adminService = adminService;
         this.studentRepo = studentRepo;
         this.subjectRepo = subjectRepo;
@@ -86,12 +97,41 @@ public class AdminDashboardController extends Controller<Object> {
     }
 
     /**
-     * Load all students into the table
+     * Load the current page of students into the table
      */
     private void loadStudents() {
-        List<Student> students = adminService.viewAllStudents();
+        List<Student> students = adminService.pageStudents(pageAfterId.isEmpty() ? null : pageAfterId, STUDENT_PAGE_SIZE);
+        if (students.isEmpty() && !previousPageKeys.isEmpty()) {
+            // the page emptied (e.g. its last student was removed), step back
+            handlePrevPage();
+            return;
+        }
         studentsList = FXCollections.observableArrayList(students);
         studentsTable.setItems(studentsList);
+        prevPageButton.setDisable(previousPageKeys.isEmpty());
+        nextPageButton.setDisable(students.size() < STUDENT_PAGE_SIZE);
+        pageLabel.setText("Page " + (previousPageKeys.size() + 1));
+    }
+
+    /**
+     * Handle Next page button click
+     */
+    @FXML
+    private void handleNextPage() {
+        if (studentsList == null || studentsList.isEmpty()) return;
+        previousPageKeys.push(pageAfterId);
+        pageAfterId = studentsList.get(studentsList.size() - 1).getId();
+        loadStudents();
+    }
+
+    /**
+     * Handle Previous page button click
+     */
+    @FXML
+    private void handlePrevPage() {
+        if (previousPageKeys.isEmpty()) return;
+        pageAfterId = previousPageKeys.pop();
+        loadStudents();
     }
 
     /**
@@ -259,21 +299,19 @@ public class AdminDashboardController extends Controller<Object> {
         stats.append("=== STUDENT STATISTICS ===\n\n");
 
         // Total students
-        List<Student> allStudents = adminService.viewAllStudents();
-        stats.append("Total Students: ").append(allStudents.size()).append("\n\n");
+        stats.append("Total Students: ").append(adminService.countStudents()).append("\n\n");
 
         // Pass/Fail categorization
         stats.append("--- Pass/Fail Distribution ---\n");
-        Map<String, List<Student>> passFail = adminService.categorizePassFail();
-        stats.append("PASS: ").append(passFail.get("PASS").size()).append(" students\n");
-        stats.append("FAIL: ").append(passFail.get("FAIL").size()).append(" students\n\n");
+        Map<String, Integer> passFail = adminService.countPassFail();
+        stats.append("PASS: ").append(passFail.get("PASS")).append(" students\n");
+        stats.append("FAIL: ").append(passFail.get("FAIL")).append(" students\n\n");
 
         // Grade distribution
         stats.append("--- Grade Distribution ---\n");
-        Map<Grade, List<Student>> gradeDistribution = adminService.groupByGrade();
+        Map<Grade, Integer> gradeDistribution = adminService.countByGrade();
         for (Grade grade : Grade.values()) {
-            List<Student> students = gradeDistribution.get(grade);
-            stats.append(String.format("%-4s: %d students\n", grade, students.size()));
+            stats.append(String.format("%-4s: %d students\n", grade, gradeDistribution.get(grade)));
         }
 
         stats.append("\n=== SUBJECT STATISTICS ===\n\n");
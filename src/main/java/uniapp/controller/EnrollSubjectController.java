@@ -7,8 +7,8 @@ import uniapp.model.EnrolledSubject;
 import uniapp.model.Student;
 import uniapp.model.Subject;
 import uniapp.service.StudentService;
-import uniapp.repo.SubjectRepository;
-import uniapp.repo.StudentRepository;
+import uniapp.repo.SubjectStore;
+import uniapp.repo.StudentStore;
 
 import java.util.List;
 import java.util.stream.Collectors;
@@ -21,7 +21,7 @@ public class EnrollSubjectController extends Controller<Student> {
 
     // StudentService - for enrollment operations and getting subject list
     private final StudentService studentService;
-    private final SubjectRepository subjectRepository;
+    private final SubjectStore subjectRepository;
     
     @FXML private ListView<Subject> subjectListView;  // Changed to subject type
     @FXML private Button enrollButton;
@@ -31,7 +31,7 @@ public class EnrollSubjectController extends Controller<Student> {
     /**
      * Constructor - inject StudentService dependency
      */
-    public EnrollSubjectController(StudentService studentService, SubjectRepository subjectRepository) {
+    public EnrollSubjectController(StudentService studentService, SubjectStore subjectRepository) {
         this.studentService = studentService;
         this.subjectRepository = subjectRepository;
     }
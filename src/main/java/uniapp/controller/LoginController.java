@@ -15,8 +15,8 @@ import uniapp.service.AuthService;
 import uniapp.service.StudentAuthService;
 import uniapp.service.StudentService;
 import uniapp.util.IdGenerator;
-import uniapp.repo.StudentRepository;
-import uniapp.repo.SubjectRepository;
+import uniapp.repo.StudentStore;
+import uniapp.repo.SubjectStore;
 
 /**
  * Login Controller - Handles user login and registration
@@ -25,12 +25,12 @@ public class LoginController extends Controller<AuthService> {
 
     // StudentService - to pass to student dashboard
     private final StudentService studentService;
-    private final SubjectRepository subjectRepository;
+    private final SubjectStore subjectRepository;
     private final AuthService authService;
     private final AdminAuthService adminAuthService;
     private final AdminService adminService;
     private final IdGenerator idGenerator;
-    private final StudentRepository studentRepo;
+    private final StudentStore studentRepo;
 
     @FXML private TextField usernameField;
     @FXML private PasswordField passwordField;
@@ -40,9 +40,9 @@ public class LoginController extends Controller<AuthService> {
      * Constructor - inject StudentService dependency
      */
 
-public LoginController(StudentService studentService, SubjectRepository subjectRepository, 
+public LoginController(StudentService studentService, SubjectStore subjectRepository, 
                       AuthService authService, AdminAuthService adminAuthService,
-                      AdminService adminService, StudentRepository studentRepo, 
+                      AdminService adminService, StudentStore studentRepo, 
                       IdGenerator idGenerator) {
         this.studentService = studentService;
         this.subjectRepository = subjectRepository;
@@ -10,8 +10,8 @@ import uniapp.model.EnrolledSubject;
 import uniapp.model.Student;
 import uniapp.service.AuthService;
 import uniapp.service.StudentService;
-import uniapp.repo.SubjectRepository;
-import uniapp.repo.StudentRepository;
+import uniapp.repo.SubjectStore;
+import uniapp.repo.StudentStore;
 
 /**
  * Student Dashboard Controller - Main interface for students
@@ -20,7 +20,7 @@ public class StudentDashboardController extends Controller<Student> {
 
     //StudentService - for enrollment and removal operations
     private final StudentService studentService;
-    private final SubjectRepository subjectRepository;
+    private final SubjectStore subjectRepository;
     private final AuthService authService;
 
     @FXML private Label welcomeLabel;
@@ -40,7 +40,7 @@ public class StudentDashboardController extends Controller<Student> {
      * Constructor - inject StudentService dependancy
      */
     
-    public StudentDashboardController(StudentService studentService, SubjectRepository subjectRepository, AuthService authService) {
+    public StudentDashboardController(StudentService studentService, SubjectStore subjectRepository, AuthService authService) {
         this.studentService = studentService;
         this.subjectRepository = subjectRepository;
         this.authService = authService;
@@ -5,6 +5,7 @@ public class EnrolledSubject {
     private int mark;      // 25..100 randomly assigned
     private Grade grade;   // derived from mark
     private Subject subject;
+    private boolean dirty = true; // mark changed since the last save
 
     public EnrolledSubject(int id, int mark, Subject subject) {
         this.id = id;
@@ -21,8 +22,12 @@ public class EnrolledSubject {
     public void setMark(int mark) {
         this.mark = mark;
         this.grade = Grade.fromMark(mark);
+        this.dirty = true;
     }
 
+    public boolean isDirty() { return dirty; }
+    public void markClean() { dirty = false; }
+
     public Grade computeGrade() {
         this.grade = Grade.fromMark(this.mark);
         return this.grade;
@@ -1,26 +1,39 @@
 package uniapp.model;
 
-import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-
+import java.util.Set;
+import java.util.function.Function;
 
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
 public class Student {
+    /** Persisted fields whose changes are tracked between saves. */
+    public enum Field { NAME, EMAIL, PASSWORD, ENROLMENTS }
+
     private StringProperty id = new SimpleStringProperty();           // 6-digit zero-padded
     private StringProperty name = new SimpleStringProperty();
     private StringProperty email = new SimpleStringProperty();        // must end with @university.com
     private String password;                                           // validated by rules (keep as String for security)
     private final ObservableList<EnrolledSubject> enrolments = FXCollections.observableArrayList();
+    // fields changed since the last save; a new student has never been saved
+    private final Set<Field> dirty = EnumSet.allOf(Field.class);
+    // enrolments as stored, not yet decoded into the list (null once decoded)
+    private String encodedEnrolments;
+    private Function<String, List<EnrolledSubject>> enrolmentDecoder;
 
     public Student(String id, String name, String email, String password) {
         this.id.set(id);
         this.name.set(name);
         this.email.set(email);
         this.password = password;
+        this.name.addListener((obs, oldValue, newValue) -> dirty.add(Field.NAME));
+        this.email.addListener((obs, oldValue, newValue) -> dirty.add(Field.EMAIL));
+        this.enrolments.addListener((ListChangeListener<EnrolledSubject>) change -> dirty.add(Field.ENROLMENTS));
     }
 
     // Getters
@@ -28,19 +41,73 @@ public class Student {
     public final String getName() { return name.get(); }
     public final String getEmail() { return email.get(); }
     public String getPassword() { return password; }
-    public ObservableList<EnrolledSubject> getEnrolments() { return enrolments; }
+    public ObservableList<EnrolledSubject> getEnrolments() {
+        if (encodedEnrolments != null) decodeEnrolments();
+        return enrolments;
+    }
 
     // Setters
-    public final void setId(String value) { this.id.set(value); }
+    public final void setId(String value) {
+        this.id.set(value);
+        dirty.addAll(EnumSet.allOf(Field.class)); // a different record as far as storage is concerned
+    }
     public final void setName(String value) { this.name.set(value); }
     public final void setEmail(String value) { this.email.set(value); }
-    public void changePassword(String newPassword) { this.password = newPassword; }
+    public void changePassword(String newPassword) {
+        this.password = newPassword;
+        dirty.add(Field.PASSWORD);
+    }
 
     // Property getters (for JavaFX binding)
     public StringProperty idProperty() { return id; }
     public StringProperty nameProperty() { return name; }
     public StringProperty emailProperty() { return email; }
 
+    // Lazy enrolments
+    /**
+     * Hand over the enrolments in their stored form; {@code decoder} turns them into objects the first time
+     * {@link #getEnrolments()} is called, so callers that never look at enrolments never pay for them.
+     */
+    public void setEncodedEnrolments(String encoded, Function<String, List<EnrolledSubject>> decoder) {
+        enrolments.clear();
+        this.encodedEnrolments = encoded;
+        this.enrolmentDecoder = decoder;
+    }
+
+    /** The enrolments in their stored form if they have not been decoded yet, otherwise null. */
+    public String getEncodedEnrolments() { return encodedEnrolments; }
+
+    private void decodeEnrolments() {
+        String encoded = encodedEnrolments;
+        encodedEnrolments = null;
+        boolean wasDirty = dirty.contains(Field.ENROLMENTS);
+        enrolments.setAll(enrolmentDecoder.apply(encoded));
+        enrolmentDecoder = null;
+        if (!wasDirty) {
+            // decoding is not a change
+            dirty.remove(Field.ENROLMENTS);
+            for (EnrolledSubject e : enrolments) e.markClean();
+        }
+    }
+
+    // Change tracking
+    /** Fields changed since the student was last saved or loaded; a changed mark counts as ENROLMENTS. */
+    public Set<Field> dirtyFields() {
+        Set<Field> fields = dirty.isEmpty() ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(dirty);
+        for (EnrolledSubject e : enrolments) {
+            if (e.isDirty()) fields.add(Field.ENROLMENTS);
+        }
+        return fields;
+    }
+
+    public boolean isDirty() { return !dirtyFields().isEmpty(); }
+
+    /** Called by the repository once the current state is persisted. */
+    public void markClean() {
+        dirty.clear();
+        for (EnrolledSubject e : enrolments) e.markClean();
+    }
+
     // Enrolment methods
     public void addEnrolment(EnrolledSubject es) { enrolments.add(es); }
     public void removeEnrolmentIf(java.util.function.Predicate<EnrolledSubject> predicate) {
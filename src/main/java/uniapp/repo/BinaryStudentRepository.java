@@ -0,0 +1,460 @@
+package uniapp.repo;
+
+import uniapp.model.EnrolledSubject;
+import uniapp.model.Grade;
+import uniapp.model.Student;
+import uniapp.model.Subject;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Student storage in a fixed-layout binary file opened through {@link FileChannel#map}.
+ *
+ * Every student occupies one fixed-size slot, so a record is located by arithmetic instead of parsing:
+ * opening the file only scans the slot headers to build an id -> slot directory, and a mark change is
+ * written in place without touching any other record. Any other update writes the student to a free slot
+ * and only then frees the old one, so a crash part-way through leaves the previous version. Student ids are the 6-digit numeric ids issued by
+ * IdGenerator, which keeps the directory a flat int array.
+ *
+ * Layout: a 64-byte header (magic, version, slot size, slots in use) followed by the slots.
+ * Slot: live flag, id, enrolment count, name, email, password, then {@value #MAX_ENROLMENTS} enrolments of
+ * (enrolment id, mark, subject id, code, title). Strings are stored as a length byte plus UTF-8 bytes.
+ *
+ * As the {@code binary} engine of {@link StorageEngine}, writes land in the mapped file (and so survive the
+ * process) immediately but reach the disk only on {@link #force()}, which batchUpsert does once per batch.
+ * Queries other than by id scan the slots, and a snapshot decodes every slot.
+ */
+public class BinaryStudentRepository implements StudentStore, Closeable {
+    private static final int MAGIC = 0x55535442; // "USTB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAX_STUDENT_ID = 999999;
+    private static final int MAX_ENROLMENTS = 4;
+
+    // string field capacities, in bytes of UTF-8 (plus one length byte each)
+    private static final int NAME_BYTES = 63;
+    private static final int EMAIL_BYTES = 63;
+    private static final int PASSWORD_BYTES = 31;
+    private static final int CODE_BYTES = 15;
+    private static final int TITLE_BYTES = 63;
+
+    // slot field offsets
+    private static final int FLAG = 0;
+    private static final int ID = 1;
+    private static final int ENROLMENT_COUNT = 5;
+    private static final int NAME = 6;
+    private static final int EMAIL = NAME + 1 + NAME_BYTES;
+    private static final int PASSWORD = EMAIL + 1 + EMAIL_BYTES;
+    private static final int ENROLMENTS = PASSWORD + 1 + PASSWORD_BYTES;
+    // enrolment field offsets, relative to the enrolment
+    private static final int E_ID = 0;
+    private static final int E_MARK = 4;
+    private static final int E_SUBJECT_ID = 8;
+    private static final int E_CODE = 12;
+    private static final int E_TITLE = E_CODE + 1 + CODE_BYTES;
+    private static final int ENROLMENT_SIZE = E_TITLE + 1 + TITLE_BYTES;
+    private static final int SLOT_SIZE = ENROLMENTS + MAX_ENROLMENTS * ENROLMENT_SIZE;
+
+    private static final byte FREE = 0;
+    // Live slots are flagged 1, 2 or 3: a rewrite flags its new slot with the successor of the old slot's flag,
+    // so if a crash leaves both live, the newer copy is the one whose flag follows the other's.
+    private static final byte LIVE = 1;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;   // slots mapped
+    private int slotCount;  // slots ever used (live or free)
+    // numeric student id -> slot + 1 (0 = absent)
+    private final int[] directory = new int[MAX_STUDENT_ID + 1];
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    // canonical subjects for the enrolments of students read back; may be null
+    private final SubjectStore subjects;
+    private int liveCount;
+    // bumped by every write, for snapshot versions
+    private long version;
+
+    public BinaryStudentRepository(File storageFile) {
+        this(storageFile, null);
+    }
+
+    /** @param subjects canonical subjects for enrolments; may be null */
+    public BinaryStudentRepository(File storageFile, SubjectStore subjects) {
+        this.subjects = subjects;
+        try {
+            if (storageFile.getParentFile() != null && !storageFile.getParentFile().exists()) storageFile.getParentFile().mkdirs();
+            this.channel = FileChannel.open(storageFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() == 0) {
+                map(1024);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, SLOT_SIZE);
+                buffer.putInt(12, 0);
+            } else {
+                map((int) ((channel.size() - HEADER_SIZE) / SLOT_SIZE));
+                if (buffer.getInt(0) != MAGIC) throw new IOException("Not a binary student file: " + storageFile);
+                if (buffer.getInt(4) != VERSION || buffer.getInt(8) != SLOT_SIZE) throw new IOException("Unsupported binary student file layout: " + storageFile);
+                slotCount = buffer.getInt(12);
+                loadDirectory();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public static int convertFromText(File textFile, File binaryFile) {
+        return convertFromText(textFile, binaryFile, null);
+    }
+
+    /**
+     * Convert a pipe-delimited students.data file, or its shard files, into the binary format.
+     * @param subjects resolves enrolments stored by subject id only; may be null for files in the original format
+     * @return number of students written
+     */
+    public static int convertFromText(File textFile, File binaryFile, SubjectStore subjects) {
+        if (binaryFile.exists() && !binaryFile.delete()) throw new UncheckedIOException(new IOException("Cannot replace " + binaryFile));
+        StudentRepository text = new StudentRepository(textFile, false, StudentRepository.storedShardCount(textFile));
+        text.setSubjectRepository(subjects);
+        List<Student> students = text.findAll();
+        try (BinaryStudentRepository out = new BinaryStudentRepository(binaryFile)) {
+            for (Student s : students) out.upsert(s);
+            out.force();
+        }
+        return students.size();
+    }
+
+    public Set<StoreCapability> capabilities() {
+        return EnumSet.of(StoreCapability.PERSISTENT);
+    }
+
+    /** @throws IllegalArgumentException if the student does not fit a slot; nothing is written then */
+    public synchronized void upsert(Student student) {
+        int numericId = checkFits(student);
+        int previous = directory[numericId] - 1;
+        int slot = freeSlots.isEmpty() ? slotCount++ : freeSlots.pop();
+        if (slot >= capacity) map(Math.max(capacity * 2, 1024));
+        buffer.putInt(12, slotCount);
+        if (previous < 0) {
+            writeSlot(offset(slot), numericId, student, LIVE);
+            liveCount++;
+        } else {
+            // the old slot stays live until the new one is complete
+            int old = offset(previous);
+            writeSlot(offset(slot), numericId, student, nextLive(buffer.get(old + FLAG)));
+            buffer.put(old + FLAG, FREE);
+            freeSlots.push(previous);
+        }
+        directory[numericId] = slot + 1;
+        version++;
+    }
+
+    /** Writes every student, then forces the file once. A student that does not fit a slot rejects the whole batch before anything is written. */
+    public synchronized void batchUpsert(Collection<Student> students) {
+        for (Student s : students) checkFits(s);
+        for (Student s : students) upsert(s);
+        force();
+    }
+
+    public synchronized boolean existsById(String id) {
+        return slotOf(id) >= 0;
+    }
+
+    public boolean existsByEmail(String email) {
+        return findByEmail(email) != null;
+    }
+
+    public synchronized Student findById(String id) {
+        int slot = slotOf(id);
+        return slot < 0 ? null : readSlot(offset(slot));
+    }
+
+    public synchronized Student findByEmail(String email) {
+        if (email == null) return null;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = offset(slot);
+            if (isLive(buffer.get(base + FLAG)) && readString(base + EMAIL).equalsIgnoreCase(email)) return readSlot(base);
+        }
+        return null;
+    }
+
+    public synchronized List<Student> findAll() {
+        List<Student> result = new ArrayList<>(liveCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            Student s = readSlot(offset(slot));
+            if (s != null) result.add(s);
+        }
+        return result;
+    }
+
+    public synchronized StudentSnapshot snapshot() {
+        return StudentSnapshot.of(version, findAll(), s -> StoreSupport.copy(s, subjects));
+    }
+
+    /**
+     * Cursor that decodes one slot at a time as it is consumed. Slots are read under the lock one by one,
+     * so concurrent writes may or may not be visible. Close the stream (try-with-resources) when done.
+     */
+    public Stream<Student> stream() {
+        int slots;
+        synchronized (this) { slots = slotCount; }
+        return IntStream.range(0, slots).mapToObj(this::readLiveSlot).filter(Objects::nonNull);
+    }
+
+    /** Keyset pagination over the id directory, which is already in id order. */
+    public synchronized List<Student> page(String afterId, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page size must be positive");
+        List<Student> result = new ArrayList<>(limit);
+        for (int n = afterId == null ? 0 : numericId(afterId) + 1; n <= MAX_STUDENT_ID && result.size() < limit; n++) {
+            Student s = directory[n] > 0 ? readSlot(offset(directory[n] - 1)) : null;
+            if (s != null) result.add(s);
+        }
+        return result;
+    }
+
+    public List<Student> findBySubject(int subjectId) {
+        return select(s -> StoreSupport.enrolledIn(s, subjectId));
+    }
+
+    public int countBySubject(int subjectId) {
+        return findBySubject(subjectId).size();
+    }
+
+    public List<Student> findByAnyGrade(Set<Grade> grades) {
+        return select(s -> StoreSupport.holdsAny(s, grades));
+    }
+
+    public List<Student> findByNoGrade(Set<Grade> grades) {
+        return select(s -> !StoreSupport.holdsAny(s, grades));
+    }
+
+    public int countByAnyGrade(Set<Grade> grades) {
+        return findByAnyGrade(grades).size();
+    }
+
+    /**
+     * Overwrite the mark of one enrolment in place.
+     * @return false if the student or enrolment does not exist
+     */
+    public synchronized boolean updateMark(String studentId, int enrolmentId, int mark) {
+        int slot = slotOf(studentId);
+        if (slot < 0) return false;
+        int base = offset(slot);
+        int count = buffer.get(base + ENROLMENT_COUNT);
+        for (int i = 0; i < count; i++) {
+            int e = base + ENROLMENTS + i * ENROLMENT_SIZE;
+            if (buffer.getInt(e + E_ID) == enrolmentId) {
+                buffer.putInt(e + E_MARK, mark);
+                version++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void deleteById(String id) {
+        int slot = slotOf(id);
+        if (slot < 0) return;
+        buffer.put(offset(slot) + FLAG, FREE);
+        directory[numericId(id)] = 0;
+        freeSlots.push(slot);
+        liveCount--;
+        version++;
+    }
+
+    public synchronized void clearAll() {
+        Arrays.fill(directory, 0);
+        freeSlots.clear();
+        slotCount = 0;
+        liveCount = 0;
+        buffer.putInt(12, 0);
+        version++;
+    }
+
+    public synchronized int count() { return liveCount; }
+
+    /** Flush mapped changes to disk. */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            buffer.force();
+            channel.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Live students matching the filter, in id order.
+    private synchronized List<Student> select(Predicate<Student> filter) {
+        List<Student> result = new ArrayList<>();
+        for (int n = 0; n <= MAX_STUDENT_ID; n++) {
+            if (directory[n] == 0) continue;
+            Student s = readSlot(offset(directory[n] - 1));
+            if (s != null && filter.test(s)) result.add(s);
+        }
+        return result;
+    }
+
+    private synchronized Student readLiveSlot(int slot) {
+        if (slot >= slotCount) return null;
+        return readSlot(offset(slot));
+    }
+
+    private void loadDirectory() {
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = offset(slot);
+            byte flag = buffer.get(base + FLAG);
+            if (!isLive(flag)) {
+                freeSlots.push(slot);
+                continue;
+            }
+            int numericId = buffer.getInt(base + ID);
+            int other = directory[numericId] - 1;
+            if (other < 0) {
+                directory[numericId] = slot + 1;
+                liveCount++;
+                continue;
+            }
+            // a crash between writing a rewrite and freeing the old slot: keep the newer copy
+            boolean newer = flag == nextLive(buffer.get(offset(other) + FLAG));
+            int stale = newer ? other : slot;
+            buffer.put(offset(stale) + FLAG, FREE);
+            freeSlots.push(stale);
+            if (newer) directory[numericId] = slot + 1;
+        }
+    }
+
+    private static boolean isLive(byte flag) {
+        return flag >= 1 && flag <= 3;
+    }
+
+    private static byte nextLive(byte flag) {
+        return (byte) (flag % 3 + 1);
+    }
+
+    private void map(int slots) {
+        try {
+            if (buffer != null) buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+            capacity = slots;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private int slotOf(String id) {
+        if (id == null || id.length() != 6) return -1;
+        int numericId;
+        try {
+            numericId = Integer.parseInt(id);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+        return numericId < 0 ? -1 : directory[numericId] - 1;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int numericId(String id) {
+        try {
+            int n = Integer.parseInt(id);
+            if (id.length() == 6 && n >= 0) return n;
+        } catch (NumberFormatException ignore) {
+        }
+        throw new IllegalArgumentException("Student id must be 6 digits: " + id);
+    }
+
+    // The student's numeric id, once every field is known to fit its slot.
+    private static int checkFits(Student s) {
+        int numericId = numericId(s.getId());
+        checkLength(s.getName(), NAME_BYTES, "Name");
+        checkLength(s.getEmail(), EMAIL_BYTES, "Email");
+        checkLength(s.getPassword(), PASSWORD_BYTES, "Password");
+        List<EnrolledSubject> enrolments = s.getEnrolments();
+        if (enrolments.size() > MAX_ENROLMENTS) throw new IllegalArgumentException("Binary slots hold at most " + MAX_ENROLMENTS + " enrolments");
+        for (EnrolledSubject es : enrolments) {
+            if (es.getSubject() == null) throw new IllegalArgumentException("Enrolment " + es.getId() + " has no subject");
+            checkLength(es.getSubject().getCode(), CODE_BYTES, "Subject code");
+            checkLength(es.getSubject().getTitle(), TITLE_BYTES, "Subject title");
+        }
+        return numericId;
+    }
+
+    private static void checkLength(String value, int maxBytes, String field) {
+        if (utf8(value).length > maxBytes) throw new IllegalArgumentException(field + " too long for binary storage (max " + maxBytes + " bytes)");
+    }
+
+    private static byte[] utf8(String value) {
+        return (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Caller has checked the student fits (checkFits) and passes a free slot, which turns live only once complete.
+    private void writeSlot(int base, int numericId, Student s, byte liveFlag) {
+        buffer.put(base + FLAG, FREE); // not live until fully written
+        buffer.putInt(base + ID, numericId);
+        writeString(base + NAME, NAME_BYTES, s.getName(), "Name");
+        writeString(base + EMAIL, EMAIL_BYTES, s.getEmail(), "Email");
+        writeString(base + PASSWORD, PASSWORD_BYTES, s.getPassword(), "Password");
+        List<EnrolledSubject> enrolments = s.getEnrolments();
+        buffer.put(base + ENROLMENT_COUNT, (byte) enrolments.size());
+        for (int i = 0; i < enrolments.size(); i++) {
+            EnrolledSubject es = enrolments.get(i);
+            Subject subj = es.getSubject();
+            int e = base + ENROLMENTS + i * ENROLMENT_SIZE;
+            buffer.putInt(e + E_ID, es.getId());
+            buffer.putInt(e + E_MARK, es.getMark());
+            buffer.putInt(e + E_SUBJECT_ID, subj.getId());
+            writeString(e + E_CODE, CODE_BYTES, subj.getCode(), "Subject code");
+            writeString(e + E_TITLE, TITLE_BYTES, subj.getTitle(), "Subject title");
+        }
+        buffer.put(base + FLAG, liveFlag);
+    }
+
+    // A slot that is not live (freed, or torn by a crash mid-write) reads as no student.
+    private Student readSlot(int base) {
+        if (!isLive(buffer.get(base + FLAG))) return null;
+        Student s = new Student(String.format("%06d", buffer.getInt(base + ID)),
+                readString(base + NAME), readString(base + EMAIL), readString(base + PASSWORD));
+        int count = buffer.get(base + ENROLMENT_COUNT);
+        for (int i = 0; i < count; i++) {
+            int e = base + ENROLMENTS + i * ENROLMENT_SIZE;
+            int subjectId = buffer.getInt(e + E_SUBJECT_ID);
+            Subject subj = subjects == null ? null : subjects.findById(subjectId);
+            if (subj == null) subj = new Subject(subjectId, readString(e + E_CODE), readString(e + E_TITLE));
+            s.addEnrolment(new EnrolledSubject(buffer.getInt(e + E_ID), buffer.getInt(e + E_MARK), subj));
+        }
+        s.markClean();
+        return s;
+    }
+
+    private void writeString(int pos, int maxBytes, String value, String field) {
+        byte[] bytes = utf8(value);
+        if (bytes.length > maxBytes) throw new IllegalArgumentException(field + " too long for binary storage (max " + maxBytes + " bytes)");
+        buffer.put(pos, (byte) bytes.length);
+        ByteBuffer dst = buffer.duplicate();
+        dst.position(pos + 1);
+        dst.put(bytes);
+    }
+
+    private String readString(int pos) {
+        int len = buffer.get(pos) & 0xFF;
+        byte[] bytes = new byte[len];
+        ByteBuffer src = buffer.duplicate();
+        src.position(pos + 1);
+        src.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
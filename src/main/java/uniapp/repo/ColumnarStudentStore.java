@@ -0,0 +1,486 @@
+package uniapp.repo;
+
+import uniapp.model.EnrolledSubject;
+import uniapp.model.Grade;
+import uniapp.model.Student;
+import uniapp.model.Subject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The {@code columnar} engine: a read-mostly, in-memory student store that keeps every field off the Java heap,
+ * for cohorts too large to hold as {@link Student} objects (each carries JavaFX properties and an observable list).
+ *
+ * Data is laid out column by column in direct buffers: one int/byte column per student field, string
+ * fields as offsets into a shared UTF-8 area, and the enrolments of all students as parallel
+ * enrolment-id / mark / subject-id columns addressed by each row's start and count. Analytics
+ * ({@link #countByGrade()}, {@link #countPassFail()}, {@link #averageMark(int)}, ...) scan the columns
+ * directly; Student objects are only built when a caller asks for one. The {@link StudentStore} counts
+ * ({@link #countByAnyGrade}, {@link #countBySubject}) scan the columns the same way, so AdminService's
+ * countByGrade, countPassFail and rosterSize never materialize a student on this engine.
+ *
+ * Subjects are stored by id and resolved through the canonical pool of a {@link SubjectStore}.
+ * Like {@link BinaryStudentRepository}, it relies on the 6-digit numeric student ids from IdGenerator.
+ * Replacing a student overwrites its strings in place when the new values fit and appends them otherwise;
+ * the string area is compacted once more than half of what it holds is garbage. Enrolments are appended when a student
+ * has more than before, so the store suits historical cohorts that are loaded once and then mostly read.
+ * Nothing is written to disk.
+ */
+public class ColumnarStudentStore implements StudentStore {
+    private static final int MAX_STUDENT_ID = 999999;
+    private static final byte LIVE = 1;
+    // largest buffer int offsets can address
+    private static final int MAX_BUFFER_BYTES = Integer.MAX_VALUE - 8;
+    // grade bits that count as a pass: every grade but Z
+    private static final int PASS_MASK = ~(1 << Grade.Z.ordinal()) & ((1 << Grade.values().length) - 1);
+
+    private final SubjectStore subjects;
+    // numeric student id -> row + 1 (0 = absent)
+    private final ByteBuffer directory = ByteBuffer.allocateDirect((MAX_STUDENT_ID + 1) * 4);
+
+    // row columns
+    private ByteBuffer ids = ByteBuffer.allocateDirect(1024 * 4);
+    private ByteBuffer live = ByteBuffer.allocateDirect(1024);
+    private ByteBuffer names = ByteBuffer.allocateDirect(1024 * 4);
+    private ByteBuffer emails = ByteBuffer.allocateDirect(1024 * 4);
+    private ByteBuffer passwords = ByteBuffer.allocateDirect(1024 * 4);
+    private ByteBuffer enrolmentStarts = ByteBuffer.allocateDirect(1024 * 4);
+    private ByteBuffer enrolmentCounts = ByteBuffer.allocateDirect(1024);
+    // enrolment columns
+    private ByteBuffer enrolmentIds = ByteBuffer.allocateDirect(4096 * 4);
+    private ByteBuffer marks = ByteBuffer.allocateDirect(4096);
+    private ByteBuffer subjectIds = ByteBuffer.allocateDirect(4096 * 2);
+    // string area: 2-byte length + UTF-8 bytes per string
+    private ByteBuffer strings = ByteBuffer.allocateDirect(64 * 1024);
+
+    private int rows;
+    private int liveRows;
+    private int enrolmentsUsed;
+    private int stringBytesUsed;
+    // bytes of the string area no live row points at any more
+    private int stringGarbage;
+    // bumped by every write, for snapshot versions
+    private long version;
+
+    public ColumnarStudentStore(SubjectStore subjects) {
+        this.subjects = subjects;
+    }
+
+    /** Copy every student of {@code source} into a new store, one at a time. */
+    public static ColumnarStudentStore copyOf(StudentStore source, SubjectStore subjects) {
+        ColumnarStudentStore store = new ColumnarStudentStore(subjects);
+        source.forEach(store::upsert);
+        return store;
+    }
+
+    public Set<StoreCapability> capabilities() {
+        return EnumSet.noneOf(StoreCapability.class);
+    }
+
+    /** @throws IllegalArgumentException if the student does not fit the columns; nothing is stored then */
+    public synchronized void upsert(Student student) {
+        int numericId = checkFits(student);
+        reserveStrings(student);
+        List<EnrolledSubject> enrolments = student.getEnrolments();
+        int row = directory.getInt(numericId * 4) - 1;
+        boolean replacing = row >= 0;
+        if (!replacing) {
+            row = rows++;
+            ensureRowCapacity(rows);
+            directory.putInt(numericId * 4, row + 1);
+            ids.putInt(row * 4, numericId);
+            enrolmentCounts.put(row, (byte) 0);
+            liveRows++;
+        }
+        putString(names, row, replacing, student.getName());
+        putString(emails, row, replacing, student.getEmail());
+        putString(passwords, row, replacing, student.getPassword());
+        int start = enrolmentStarts.getInt(row * 4);
+        if (enrolments.size() > enrolmentCounts.get(row)) {
+            start = enrolmentsUsed;
+            enrolmentsUsed += enrolments.size();
+            ensureEnrolmentCapacity(enrolmentsUsed);
+        }
+        for (int i = 0; i < enrolments.size(); i++) {
+            EnrolledSubject e = enrolments.get(i);
+            enrolmentIds.putInt((start + i) * 4, e.getId());
+            marks.put(start + i, (byte) e.getMark());
+            subjectIds.putShort((start + i) * 2, (short) e.getSubject().getId());
+        }
+        enrolmentStarts.putInt(row * 4, start);
+        enrolmentCounts.put(row, (byte) enrolments.size());
+        live.put(row, LIVE);
+        version++;
+        student.markClean();
+    }
+
+    /** A student that does not fit the columns rejects the whole batch before anything is stored. */
+    public synchronized void batchUpsert(Collection<Student> students) {
+        for (Student s : students) checkFits(s);
+        for (Student s : students) upsert(s);
+    }
+
+    public synchronized boolean existsById(String id) {
+        return rowOf(id) >= 0;
+    }
+
+    public boolean existsByEmail(String email) {
+        return findByEmail(email) != null;
+    }
+
+    public synchronized Student findByEmail(String email) {
+        if (email == null) return null;
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) == LIVE && getString(emails.getInt(row * 4)).equalsIgnoreCase(email)) return materialize(row);
+        }
+        return null;
+    }
+
+    public synchronized Student findById(String id) {
+        int row = rowOf(id);
+        return row < 0 ? null : materialize(row);
+    }
+
+    /** Cursor that builds one Student per live row as it is consumed. Close it when done. */
+    public Stream<Student> stream() {
+        int count;
+        synchronized (this) { count = rows; }
+        return IntStream.range(0, count).mapToObj(this::materializeLive).filter(Objects::nonNull);
+    }
+
+    public List<Student> findAll() {
+        return select(row -> true);
+    }
+
+    public synchronized StudentSnapshot snapshot() {
+        return StudentSnapshot.of(version, findAll(), s -> StoreSupport.copy(s, subjects));
+    }
+
+    /** Keyset pagination over the id directory, which is already in id order. */
+    public synchronized List<Student> page(String afterId, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page size must be positive");
+        List<Student> result = new ArrayList<>(limit);
+        for (int n = afterId == null ? 0 : numericId(afterId) + 1; n <= MAX_STUDENT_ID && result.size() < limit; n++) {
+            int row = directory.getInt(n * 4) - 1;
+            if (row >= 0) result.add(materialize(row));
+        }
+        return result;
+    }
+
+    public List<Student> findBySubject(int subjectId) {
+        return select(row -> markIn(row, subjectId) >= 0);
+    }
+
+    public List<Student> findByAnyGrade(Set<Grade> grades) {
+        int mask = maskOf(grades);
+        return select(row -> (gradeMask(row) & mask) != 0);
+    }
+
+    public List<Student> findByNoGrade(Set<Grade> grades) {
+        int mask = maskOf(grades);
+        return select(row -> (gradeMask(row) & mask) == 0);
+    }
+
+    public synchronized int countByAnyGrade(Set<Grade> grades) {
+        int mask = maskOf(grades);
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) == LIVE && (gradeMask(row) & mask) != 0) count++;
+        }
+        return count;
+    }
+
+    public synchronized void deleteById(String id) {
+        int row = rowOf(id);
+        if (row < 0) return;
+        for (ByteBuffer column : new ByteBuffer[]{names, emails, passwords}) stringGarbage += stringSize(column.getInt(row * 4));
+        live.put(row, (byte) 0);
+        directory.putInt(ids.getInt(row * 4) * 4, 0);
+        liveRows--;
+        version++;
+    }
+
+    /** Forgets every row; the buffers keep their capacity. */
+    public synchronized void clearAll() {
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) == LIVE) directory.putInt(ids.getInt(row * 4) * 4, 0);
+        }
+        rows = 0;
+        liveRows = 0;
+        enrolmentsUsed = 0;
+        stringBytesUsed = 0;
+        stringGarbage = 0;
+        version++;
+    }
+
+    public synchronized int count() { return liveRows; }
+
+    /** Students holding at least one enrolment of each grade, as AdminService.countByGrade counts them. */
+    public synchronized Map<Grade, Integer> countByGrade() {
+        int[] counts = new int[Grade.values().length];
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) != LIVE) continue;
+            int mask = gradeMask(row);
+            for (int g = 0; g < counts.length; g++) if ((mask & (1 << g)) != 0) counts[g]++;
+        }
+        Map<Grade, Integer> result = new EnumMap<>(Grade.class);
+        for (Grade g : Grade.values()) result.put(g, counts[g.ordinal()]);
+        return result;
+    }
+
+    /** PASS: at least one enrolment graded P or better; FAIL: everyone else. */
+    public synchronized Map<String, Integer> countPassFail() {
+        int pass = 0;
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) == LIVE && (gradeMask(row) & PASS_MASK) != 0) pass++;
+        }
+        Map<String, Integer> result = new LinkedHashMap<>();
+        result.put("PASS", pass);
+        result.put("FAIL", liveRows - pass);
+        return result;
+    }
+
+    /** Ids of the students holding at least one enrolment with {@code grade}. */
+    public synchronized List<String> findIdsByGrade(Grade grade) {
+        List<String> result = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) == LIVE && (gradeMask(row) & (1 << grade.ordinal())) != 0) result.add(idOf(row));
+        }
+        return result;
+    }
+
+    public synchronized int countBySubject(int subjectId) {
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) == LIVE && markIn(row, subjectId) >= 0) count++;
+        }
+        return count;
+    }
+
+    /** Mean mark of the enrolments in {@code subjectId}; NaN when nobody is enrolled. */
+    public synchronized double averageMark(int subjectId) {
+        long total = 0;
+        int count = 0;
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) != LIVE) continue;
+            int mark = markIn(row, subjectId);
+            if (mark < 0) continue;
+            total += mark;
+            count++;
+        }
+        return count == 0 ? Double.NaN : (double) total / count;
+    }
+
+    /** Bytes reserved off-heap by the columns and string area. */
+    public synchronized long offHeapBytes() {
+        long total = directory.capacity();
+        for (ByteBuffer b : new ByteBuffer[]{ids, live, names, emails, passwords, enrolmentStarts, enrolmentCounts,
+                enrolmentIds, marks, subjectIds, strings}) {
+            total += b.capacity();
+        }
+        return total;
+    }
+
+    // Live rows matching the filter, materialized in id order.
+    private synchronized List<Student> select(IntPredicate filter) {
+        List<Student> result = new ArrayList<>();
+        for (int n = 0; n <= MAX_STUDENT_ID; n++) {
+            int row = directory.getInt(n * 4) - 1;
+            if (row >= 0 && filter.test(row)) result.add(materialize(row));
+        }
+        return result;
+    }
+
+    private static int maskOf(Set<Grade> grades) {
+        int mask = 0;
+        for (Grade g : grades) mask |= 1 << g.ordinal();
+        return mask;
+    }
+
+    private int gradeMask(int row) {
+        int start = enrolmentStarts.getInt(row * 4);
+        int count = enrolmentCounts.get(row);
+        int mask = 0;
+        for (int i = start; i < start + count; i++) mask |= 1 << Grade.fromMark(marks.get(i)).ordinal();
+        return mask;
+    }
+
+    // The row's mark in the subject, or -1 if not enrolled.
+    private int markIn(int row, int subjectId) {
+        int start = enrolmentStarts.getInt(row * 4);
+        int count = enrolmentCounts.get(row);
+        for (int i = start; i < start + count; i++) {
+            if (subjectIds.getShort(i * 2) == subjectId) return marks.get(i);
+        }
+        return -1;
+    }
+
+    private synchronized Student materializeLive(int row) {
+        return live.get(row) == LIVE ? materialize(row) : null;
+    }
+
+    private Student materialize(int row) {
+        Student s = new Student(idOf(row), getString(names.getInt(row * 4)),
+                getString(emails.getInt(row * 4)), getString(passwords.getInt(row * 4)));
+        int start = enrolmentStarts.getInt(row * 4);
+        int count = enrolmentCounts.get(row);
+        for (int i = start; i < start + count; i++) {
+            int subjectId = subjectIds.getShort(i * 2);
+            Subject subj = subjects == null ? null : subjects.findById(subjectId);
+            if (subj == null) subj = new Subject(subjectId, "?", "(removed subject)");
+            s.addEnrolment(new EnrolledSubject(enrolmentIds.getInt(i * 4), marks.get(i), subj));
+        }
+        s.markClean();
+        return s;
+    }
+
+    private String idOf(int row) {
+        return String.format("%06d", ids.getInt(row * 4));
+    }
+
+    private int rowOf(String id) {
+        if (id == null || id.length() != 6) return -1;
+        int numericId;
+        try {
+            numericId = Integer.parseInt(id);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+        return numericId < 0 ? -1 : directory.getInt(numericId * 4) - 1;
+    }
+
+    // The student's numeric id, once every field is known to fit the columns.
+    private static int checkFits(Student s) {
+        int numericId = numericId(s.getId());
+        checkLength(s.getName());
+        checkLength(s.getEmail());
+        checkLength(s.getPassword());
+        List<EnrolledSubject> enrolments = s.getEnrolments();
+        if (enrolments.size() > Byte.MAX_VALUE) throw new IllegalArgumentException("Too many enrolments for columnar storage");
+        for (EnrolledSubject e : enrolments) {
+            if (e.getMark() < 0 || e.getMark() > Byte.MAX_VALUE) throw new IllegalArgumentException("Mark out of range: " + e.getMark());
+            if (e.getSubject() == null) throw new IllegalArgumentException("Enrolment " + e.getId() + " has no subject");
+            int subjectId = e.getSubject().getId();
+            if (subjectId < 0 || subjectId > Short.MAX_VALUE) throw new IllegalArgumentException("Subject id out of range: " + subjectId);
+        }
+        return numericId;
+    }
+
+    private static void checkLength(String value) {
+        if (value != null && value.getBytes(StandardCharsets.UTF_8).length > 0xFFFF) throw new IllegalArgumentException("String too long for columnar storage");
+    }
+
+    private static int numericId(String id) {
+        try {
+            int n = Integer.parseInt(id);
+            if (id.length() == 6 && n >= 0) return n;
+        } catch (NumberFormatException ignore) {
+        }
+        throw new IllegalArgumentException("Student id must be 6 digits: " + id);
+    }
+
+    // Make room for the student's strings before anything is stored: compact when the area is mostly garbage or
+    // the appended strings would overflow the int offsets.
+    private void reserveStrings(Student s) {
+        long incoming = 0;
+        for (String value : new String[]{s.getName(), s.getEmail(), s.getPassword()}) incoming += 2 + utf8(value).length;
+        boolean mostlyGarbage = stringGarbage > Math.max(64 * 1024, stringBytesUsed / 2);
+        if (mostlyGarbage || stringBytesUsed + incoming > MAX_BUFFER_BYTES) compactStrings();
+        if (stringBytesUsed + incoming > MAX_BUFFER_BYTES) throw new IllegalStateException("Columnar string area is full");
+    }
+
+    // Store the row's field, over its old bytes when the new value fits them; reserveStrings has made room.
+    private void putString(ByteBuffer column, int row, boolean replacing, String value) {
+        byte[] bytes = utf8(value);
+        int offset;
+        if (replacing && bytes.length <= (strings.getShort(column.getInt(row * 4)) & 0xFFFF)) {
+            offset = column.getInt(row * 4);
+            stringGarbage += stringSize(offset) - (2 + bytes.length);
+        } else {
+            if (replacing) stringGarbage += stringSize(column.getInt(row * 4));
+            offset = stringBytesUsed;
+            stringBytesUsed += 2 + bytes.length;
+            if (stringBytesUsed > strings.capacity()) strings = grow(strings, stringBytesUsed);
+        }
+        strings.putShort(offset, (short) bytes.length);
+        ByteBuffer dst = strings.duplicate();
+        dst.position(offset + 2);
+        dst.put(bytes);
+        column.putInt(row * 4, offset);
+    }
+
+    // Copy the strings of the live rows to a fresh area, dropping everything else.
+    private void compactStrings() {
+        ByteBuffer compacted = ByteBuffer.allocateDirect(strings.capacity());
+        int used = 0;
+        for (int row = 0; row < rows; row++) {
+            if (live.get(row) != LIVE) continue;
+            for (ByteBuffer column : new ByteBuffer[]{names, emails, passwords}) {
+                int from = column.getInt(row * 4);
+                int size = stringSize(from);
+                ByteBuffer src = strings.duplicate();
+                src.limit(from + size);
+                src.position(from);
+                compacted.position(used);
+                compacted.put(src);
+                column.putInt(row * 4, used);
+                used += size;
+            }
+        }
+        compacted.clear();
+        strings = compacted;
+        stringBytesUsed = used;
+        stringGarbage = 0;
+    }
+
+    // Bytes taken by the string at offset, length prefix included.
+    private int stringSize(int offset) {
+        return 2 + (strings.getShort(offset) & 0xFFFF);
+    }
+
+    private static byte[] utf8(String value) {
+        return (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String getString(int offset) {
+        byte[] bytes = new byte[strings.getShort(offset) & 0xFFFF];
+        ByteBuffer src = strings.duplicate();
+        src.position(offset + 2);
+        src.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void ensureRowCapacity(int needed) {
+        if (needed <= live.capacity()) return;
+        ids = grow(ids, needed * 4);
+        live = grow(live, needed);
+        names = grow(names, needed * 4);
+        emails = grow(emails, needed * 4);
+        passwords = grow(passwords, needed * 4);
+        enrolmentStarts = grow(enrolmentStarts, needed * 4);
+        enrolmentCounts = grow(enrolmentCounts, needed);
+    }
+
+    private void ensureEnrolmentCapacity(int needed) {
+        if (needed <= marks.capacity()) return;
+        enrolmentIds = grow(enrolmentIds, needed * 4);
+        marks = grow(marks, needed);
+        subjectIds = grow(subjectIds, needed * 2);
+    }
+
+    // Double the buffer (at least to minCapacity), copying its contents; absolute puts never move the position.
+    private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        long doubled = Math.min(buffer.capacity() * 2L, MAX_BUFFER_BYTES);
+        ByteBuffer bigger = ByteBuffer.allocateDirect((int) Math.max(minCapacity, doubled));
+        ByteBuffer src = buffer.duplicate();
+        src.clear();
+        bigger.put(src);
+        bigger.clear();
+        return bigger;
+    }
+}
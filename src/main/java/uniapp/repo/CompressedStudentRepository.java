@@ -0,0 +1,721 @@
+package uniapp.repo;
+
+import uniapp.model.EnrolledSubject;
+import uniapp.model.Grade;
+import uniapp.model.Student;
+import uniapp.model.Subject;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Student storage in Deflate-compressed blocks: the {@code compressed} engine of {@link StorageEngine}.
+ *
+ * Students are kept in id order and packed into blocks of about {@value #BLOCK_SIZE} bytes of record lines
+ * ({@code id|name|email|password|count|enrolmentId,mark,subjectId,code,title;...}), each block compressed on
+ * its own. The block index ({@code students.idx}) lists every block's first id, position, sizes and CRC32C,
+ * and is all that is read on open, so opening costs the same for any cohort size. A lookup by id
+ * binary-searches the index and inflates one block; the last {@value #CACHED_BLOCKS} inflated blocks are
+ * cached. findAll and the subject and grade queries inflate every block (in parallel); stream() and page()
+ * inflate one block at a time.
+ *
+ * Blocks are never changed in place. A write re-encodes the blocks its students fall in (splitting any
+ * that outgrow the block size), appends them to the data file ({@code students.<generation>.blocks}),
+ * forces it and then atomically replaces the index. The index is the commit point: after a crash the old
+ * index still describes the old blocks, so a batch is all-or-nothing. Superseded blocks stay in the data
+ * file as garbage until it outweighs the live blocks; the live blocks are then copied, still compressed,
+ * into the next generation.
+ *
+ * Email lookups use an email -> id map built by inflating every block on the first email query and kept
+ * up to date afterwards.
+ *
+ * The index, the appended blocks and the generation switch all assume a single owner, so a repository
+ * holds the exclusive {@link InterProcessLock} of {@code students.idx.lock} from open to close, and opening
+ * one while another process (or another instance in this process) has the store fails instead of waiting.
+ */
+public class CompressedStudentRepository implements StudentStore, Closeable {
+    /** Uncompressed bytes of record lines a block is filled up to. */
+    static final int BLOCK_SIZE = 16 * 1024;
+    private static final int MAGIC = 0x55534358; // "USCX"
+    private static final int VERSION = 1;
+    private static final int CACHED_BLOCKS = 32;
+    private static final long MIN_GARBAGE_FOR_COMPACTION = 4L << 20;
+
+    /** One compressed block as listed in the index. Immutable: rewriting a block makes a new one. */
+    private static final class Block {
+        final String firstId;
+        final long offset;
+        final int stored;
+        final int raw;
+        final int records;
+        final int crc;
+
+        Block(String firstId, long offset, int stored, int raw, int records, int crc) {
+            this.firstId = firstId;
+            this.offset = offset;
+            this.stored = stored;
+            this.raw = raw;
+            this.records = records;
+            this.crc = crc;
+        }
+    }
+
+    /** An inflated block: its record lines in id order, found by binary search over the line offsets. */
+    private static final class Rows {
+        final String text;
+        // start of each line, then text.length() (each line ends in '\n')
+        final int[] starts;
+
+        Rows(byte[] raw, int records) {
+            text = new String(raw, StandardCharsets.UTF_8);
+            starts = new int[records + 1];
+            int pos = 0;
+            for (int i = 0; i < records; i++) {
+                starts[i] = pos;
+                pos = text.indexOf('\n', pos) + 1;
+            }
+            starts[records] = text.length();
+        }
+
+        int size() { return starts.length - 1; }
+
+        int end(int i) { return starts[i + 1] - 1; }
+
+        String line(int i) { return text.substring(starts[i], end(i)); }
+
+        /** Index of the line for {@code id}, or {@code -(insertion point) - 1} like Arrays.binarySearch. */
+        int find(String id) {
+            int lo = 0;
+            int hi = size() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compareId(starts[mid], id);
+                if (c < 0) lo = mid + 1;
+                else if (c > 0) hi = mid - 1;
+                else return mid;
+            }
+            return -(lo + 1);
+        }
+
+        /** Index of the first line with an id greater than {@code afterId} (0 for null). */
+        int after(String afterId) {
+            if (afterId == null) return 0;
+            int i = find(afterId);
+            return i >= 0 ? i + 1 : -i - 1;
+        }
+
+        NavigableMap<String, String> toMap() {
+            NavigableMap<String, String> rows = new TreeMap<>();
+            for (int i = 0; i < size(); i++) {
+                String line = line(i);
+                rows.put(field(line, 0), line);
+            }
+            return rows;
+        }
+
+        // Compares the id at the start of the line at pos with id, without allocating it.
+        private int compareId(int pos, String id) {
+            int end = text.indexOf('|', pos);
+            int n = Math.min(end - pos, id.length());
+            for (int k = 0; k < n; k++) {
+                int c = text.charAt(pos + k) - id.charAt(k);
+                if (c != 0) return c;
+            }
+            return (end - pos) - id.length();
+        }
+    }
+
+    private final File indexFile;
+    private final SubjectStore subjects;
+    private final InterProcessLock ownerLock;
+    private boolean closed;
+    // first id -> block: the in-memory copy of the index
+    private final NavigableMap<String, Block> blocks = new TreeMap<>();
+    // inflated blocks, least recently used first
+    private final Map<Block, Rows> cache = new LinkedHashMap<>(CACHED_BLOCKS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Block, Rows> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private long generation;
+    private FileChannel data;
+    private long dataEnd;
+    private long liveBytes;
+    private int count;
+    // bumped by every write, for snapshot versions
+    private long version;
+    // lower-cased email -> student id; null until the first email lookup
+    private Map<String, String> byEmail;
+    private final AtomicLong blocksInflated = new AtomicLong();
+    private long blocksWritten;
+    private int compactions;
+
+    /** @param subjects canonical subjects for enrolments; may be null */
+    public CompressedStudentRepository(File indexFile, SubjectStore subjects) {
+        this.indexFile = indexFile;
+        this.subjects = subjects;
+        this.ownerLock = InterProcessLock.of(indexFile, 0);
+        if (!ownerLock.tryLockExclusive()) {
+            throw new IllegalStateException(indexFile + " is already open in another process or instance");
+        }
+        try {
+            generation = indexFile.exists() ? readIndex() : 1;
+            data = FileChannel.open(dataFile(generation).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // anything past the last block the index knows of is an uncommitted write
+            dataEnd = data.size();
+            deleteOtherGenerations();
+        } catch (IOException ex) {
+            ownerLock.unlock();
+            throw new UncheckedIOException(ex);
+        } catch (RuntimeException ex) {
+            ownerLock.unlock();
+            throw ex;
+        }
+    }
+
+    /**
+     * Convert a pipe-delimited students.data file, or its shard files, into compressed blocks.
+     * @param subjects resolves enrolments stored by subject id only; may be null for files in the original format
+     * @return number of students written
+     */
+    public static int convertFromText(File textFile, File indexFile, SubjectStore subjects) {
+        StudentRepository text = new StudentRepository(textFile, false, StudentRepository.storedShardCount(textFile));
+        text.setSubjectRepository(subjects);
+        List<Student> students = text.findAll();
+        try (CompressedStudentRepository out = new CompressedStudentRepository(indexFile, subjects)) {
+            out.clearAll();
+            out.batchUpsert(students);
+        }
+        return students.size();
+    }
+
+    public Set<StoreCapability> capabilities() {
+        return EnumSet.of(StoreCapability.PERSISTENT, StoreCapability.DURABLE_WRITES, StoreCapability.ATOMIC_BATCH);
+    }
+
+    public void upsert(Student student) {
+        batchUpsert(Collections.singletonList(student));
+    }
+
+    /** Re-encodes each block the students fall in once, and commits them all with one index write. */
+    public void batchUpsert(Collection<Student> students) {
+        Map<String, String> changes = new LinkedHashMap<>();
+        for (Student s : students) changes.put(s.getId(), format(s));
+        synchronized (this) {
+            apply(changes);
+        }
+        for (Student s : students) s.markClean();
+    }
+
+    public synchronized boolean existsById(String id) {
+        Block b = id == null ? null : blockFor(id);
+        return b != null && rowsOf(b).find(id) >= 0;
+    }
+
+    public synchronized boolean existsByEmail(String email) {
+        return email != null && emailIndex().containsKey(emailKey(email));
+    }
+
+    public synchronized Student findByEmail(String email) {
+        if (email == null) return null;
+        String id = emailIndex().get(emailKey(email));
+        return id == null ? null : findById(id);
+    }
+
+    public synchronized Student findById(String id) {
+        Block b = id == null ? null : blockFor(id);
+        if (b == null) return null;
+        Rows rows = rowsOf(b);
+        int i = rows.find(id);
+        return i < 0 ? null : parse(rows, i);
+    }
+
+    /** Inflates every block in parallel, bypassing the block cache. */
+    public synchronized List<Student> findAll() {
+        return new ArrayList<>(blocks.values()).parallelStream()
+                .flatMap(b -> {
+                    Rows rows = new Rows(inflate(b), b.records);
+                    return IntStream.range(0, rows.size()).mapToObj(i -> parse(rows, i));
+                })
+                .collect(Collectors.toList());
+    }
+
+    public synchronized StudentSnapshot snapshot() {
+        return StudentSnapshot.of(version, findAll(), s -> StoreSupport.copy(s, subjects));
+    }
+
+    /**
+     * Cursor that walks the blocks in id order, one page per block, so it holds at most one inflated block.
+     * Each page is read as of its own moment: concurrent writes may or may not be visible.
+     */
+    public Stream<Student> stream() {
+        Iterator<Student> cursor = new Iterator<Student>() {
+            private Iterator<Student> page = Collections.emptyIterator();
+            private String lastId;
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !exhausted) {
+                    List<Student> next = nextBlockPage(lastId);
+                    if (next.isEmpty()) exhausted = true;
+                    else lastId = next.get(next.size() - 1).getId();
+                    page = next.iterator();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public Student next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return page.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /** Keyset pagination: starts in the block holding {@code afterId} and inflates only the blocks it needs. */
+    public synchronized List<Student> page(String afterId, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page size must be positive");
+        List<Student> result = new ArrayList<>(limit);
+        Block start = afterId == null ? null : blockFor(afterId);
+        Collection<Block> from = start == null ? blocks.values() : blocks.tailMap(start.firstId, true).values();
+        for (Block b : from) {
+            Rows rows = rowsOf(b);
+            for (int i = rows.after(afterId); i < rows.size(); i++) {
+                if (result.size() == limit) return result;
+                result.add(parse(rows, i));
+            }
+        }
+        return result;
+    }
+
+    public List<Student> findBySubject(int subjectId) {
+        return select(s -> StoreSupport.enrolledIn(s, subjectId));
+    }
+
+    public int countBySubject(int subjectId) {
+        return findBySubject(subjectId).size();
+    }
+
+    public List<Student> findByAnyGrade(Set<Grade> grades) {
+        return select(s -> StoreSupport.holdsAny(s, grades));
+    }
+
+    public List<Student> findByNoGrade(Set<Grade> grades) {
+        return select(s -> !StoreSupport.holdsAny(s, grades));
+    }
+
+    public int countByAnyGrade(Set<Grade> grades) {
+        return findByAnyGrade(grades).size();
+    }
+
+    public synchronized int count() { return count; }
+
+    public synchronized void deleteById(String id) {
+        if (id == null || !existsById(id)) return;
+        apply(Collections.singletonMap(id, null));
+    }
+
+    public synchronized void clearAll() {
+        try {
+            switchGeneration(new TreeMap<>());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        count = 0;
+        if (byEmail != null) byEmail.clear();
+        version++;
+    }
+
+    /** Blocks inflated so far, by lookups and scans alike (cache hits not included). */
+    public long blocksInflated() { return blocksInflated.get(); }
+
+    public synchronized long blocksWritten() { return blocksWritten; }
+
+    public synchronized int blockCount() { return blocks.size(); }
+
+    public synchronized int compactions() { return compactions; }
+
+    /** Releases the store for other processes. */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            data.close();
+            deflater.end();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            ownerLock.unlock();
+        }
+    }
+
+    // Caller holds the monitor. Applies id -> record line changes (null deletes) and commits them together.
+    private void apply(Map<String, String> changes) {
+        Map<Block, NavigableMap<String, String>> touched = new LinkedHashMap<>();
+        Map<String, String> previous = new HashMap<>();
+        for (Map.Entry<String, String> c : changes.entrySet()) {
+            NavigableMap<String, String> rows = touched.computeIfAbsent(blockFor(c.getKey()),
+                    b -> b == null ? new TreeMap<>() : rowsOf(b).toMap());
+            String old = c.getValue() == null ? rows.remove(c.getKey()) : rows.put(c.getKey(), c.getValue());
+            previous.put(c.getKey(), old);
+        }
+        NavigableMap<String, Block> next = new TreeMap<>(blocks);
+        Map<Block, Rows> written = new HashMap<>();
+        try {
+            for (Map.Entry<Block, NavigableMap<String, String>> t : touched.entrySet()) {
+                if (t.getKey() != null) next.remove(t.getKey().firstId);
+                for (NavigableMap<String, String> piece : split(t.getValue())) {
+                    byte[] raw = render(piece);
+                    Block b = append(piece.firstKey(), raw, piece.size());
+                    next.put(b.firstId, b);
+                    written.put(b, new Rows(raw, b.records));
+                }
+            }
+            data.force(false);
+            writeIndex(generation, next.values());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        for (Block b : touched.keySet()) if (b != null) liveBytes -= b.stored;
+        for (Block b : written.keySet()) liveBytes += b.stored;
+        blocks.clear();
+        blocks.putAll(next);
+        cache.putAll(written);
+        for (Map.Entry<String, String> c : changes.entrySet()) {
+            String old = previous.get(c.getKey());
+            count += (c.getValue() != null ? 1 : 0) - (old != null ? 1 : 0);
+            if (byEmail != null) {
+                if (old != null) byEmail.remove(emailKey(field(old, 2)), c.getKey());
+                if (c.getValue() != null) byEmail.putIfAbsent(emailKey(field(c.getValue(), 2)), c.getKey());
+            }
+        }
+        version++;
+        if (dataEnd - liveBytes > Math.max(liveBytes, MIN_GARBAGE_FOR_COMPACTION)) compact();
+    }
+
+    // Caller holds the monitor. The block id falls in: the last block starting at or before it, else the first.
+    private Block blockFor(String id) {
+        Map.Entry<String, Block> e = blocks.floorEntry(id);
+        if (e == null) e = blocks.firstEntry();
+        return e == null ? null : e.getValue();
+    }
+
+    // Caller holds the monitor.
+    private Rows rowsOf(Block b) {
+        Rows rows = cache.get(b);
+        if (rows == null) {
+            rows = new Rows(inflate(b), b.records);
+            cache.put(b, rows);
+        }
+        return rows;
+    }
+
+    private synchronized List<Student> nextBlockPage(String afterId) {
+        Block b = afterId == null ? null : blockFor(afterId);
+        Collection<Block> from = b == null ? blocks.values() : blocks.tailMap(b.firstId, true).values();
+        for (Block candidate : from) {
+            Rows rows = rowsOf(candidate);
+            int first = rows.after(afterId);
+            if (first < rows.size()) return IntStream.range(first, rows.size()).mapToObj(i -> parse(rows, i)).collect(Collectors.toList());
+        }
+        return Collections.emptyList();
+    }
+
+    private List<Student> select(Predicate<Student> filter) {
+        List<Student> result = findAll();
+        result.removeIf(filter.negate());
+        return result;
+    }
+
+    // Caller holds the monitor.
+    private Map<String, String> emailIndex() {
+        if (byEmail == null) {
+            Map<String, String> index = new HashMap<>(Math.max(16, count * 2));
+            for (Block b : blocks.values()) {
+                Rows rows = new Rows(inflate(b), b.records);
+                for (int i = 0; i < rows.size(); i++) {
+                    String line = rows.line(i);
+                    index.putIfAbsent(emailKey(field(line, 2)), field(line, 0));
+                }
+            }
+            byEmail = index;
+        }
+        return byEmail;
+    }
+
+    // Pieces of about equal size, each about BLOCK_SIZE or less; none for no rows.
+    private static List<NavigableMap<String, String>> split(NavigableMap<String, String> rows) {
+        long total = 0;
+        for (String line : rows.values()) total += line.length() + 1;
+        int pieces = (int) Math.max(1, (total + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        long target = total / pieces;
+        List<NavigableMap<String, String>> result = new ArrayList<>(pieces);
+        NavigableMap<String, String> piece = new TreeMap<>();
+        long size = 0;
+        for (Map.Entry<String, String> row : rows.entrySet()) {
+            piece.put(row.getKey(), row.getValue());
+            size += row.getValue().length() + 1;
+            if (size >= target && result.size() < pieces - 1) {
+                result.add(piece);
+                piece = new TreeMap<>();
+                size = 0;
+            }
+        }
+        if (!piece.isEmpty()) result.add(piece);
+        return result;
+    }
+
+    private static byte[] render(NavigableMap<String, String> rows) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : rows.values()) sb.append(line).append('\n');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Caller holds the monitor. Compresses a block and writes it after the end of the data file.
+    private Block append(String firstId, byte[] raw, int records) throws IOException {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + 64);
+        byte[] chunk = new byte[16 * 1024];
+        while (!deflater.finished()) out.write(chunk, 0, deflater.deflate(chunk));
+        byte[] stored = out.toByteArray();
+        Block b = new Block(firstId, dataEnd, stored.length, raw.length, records, crc(stored));
+        writeFully(data, stored, dataEnd);
+        dataEnd += stored.length;
+        blocksWritten++;
+        return b;
+    }
+
+    private byte[] inflate(Block b) {
+        try {
+            byte[] stored = new byte[b.stored];
+            ByteBuffer dst = ByteBuffer.wrap(stored);
+            while (dst.hasRemaining()) {
+                if (data.read(dst, b.offset + dst.position()) < 0) throw new EOFException("Block at " + b.offset + " runs past the end of " + dataFile(generation));
+            }
+            if (crc(stored) != b.crc) throw new IOException("Corrupt block at " + b.offset + " of " + dataFile(generation));
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored);
+                byte[] raw = new byte[b.raw];
+                int n = 0;
+                while (n < raw.length && !inflater.finished()) n += inflater.inflate(raw, n, raw.length - n);
+                if (n != raw.length) throw new IOException("Block at " + b.offset + " inflated to " + n + " bytes, expected " + b.raw);
+                blocksInflated.incrementAndGet();
+                return raw;
+            } finally {
+                inflater.end();
+            }
+        } catch (DataFormatException ex) {
+            throw new UncheckedIOException(new IOException("Corrupt block at " + b.offset, ex));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private String format(Student s) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(s.getId()).append('|')
+          .append(s.getName()).append('|')
+          .append(s.getEmail()).append('|')
+          .append(s.getPassword()).append('|');
+        List<EnrolledSubject> es = s.getEnrolments();
+        sb.append(es.size()).append('|');
+        for (int i = 0; i < es.size(); i++) {
+            EnrolledSubject e = es.get(i);
+            Subject subj = e.getSubject();
+            if (i > 0) sb.append(';');
+            // code and title travel with the enrolment so a block decodes without the catalogue
+            sb.append(e.getId()).append(',').append(e.getMark()).append(',').append(subj.getId())
+              .append(',').append(subj.getCode()).append(',').append(subj.getTitle());
+        }
+        return sb.toString();
+    }
+
+    // Enrolments stay in their stored form until someone asks for them, as in StudentRepository.
+    private Student parse(Rows rows, int i) {
+        // Format: id|name|email|password|enrolmentCount|enrolmentId,mark,subjectId,code,title;...
+        String text = rows.text;
+        int from = rows.starts[i];
+        int end = rows.end(i);
+        int p1 = text.indexOf('|', from);
+        int p2 = text.indexOf('|', p1 + 1);
+        int p3 = text.indexOf('|', p2 + 1);
+        int p4 = text.indexOf('|', p3 + 1);
+        int p5 = text.indexOf('|', p4 + 1);
+        Student s = new Student(text.substring(from, p1), text.substring(p1 + 1, p2), text.substring(p2 + 1, p3), text.substring(p3 + 1, p4));
+        if (p5 >= 0 && p5 + 1 < end) s.setEncodedEnrolments(text.substring(p5 + 1, end), this::decodeEnrolments);
+        s.markClean();
+        return s;
+    }
+
+    private List<EnrolledSubject> decodeEnrolments(String encoded) {
+        List<EnrolledSubject> result = new ArrayList<>(4);
+        int pos = 0;
+        while (pos < encoded.length()) {
+            int end = encoded.indexOf(';', pos);
+            if (end < 0) end = encoded.length();
+            int c1 = encoded.indexOf(',', pos);
+            int c2 = encoded.indexOf(',', c1 + 1);
+            int c3 = encoded.indexOf(',', c2 + 1);
+            int c4 = encoded.indexOf(',', c3 + 1);
+            int subjectId = Integer.parseInt(encoded, c2 + 1, c3, 10);
+            Subject shared = subjects == null ? null : subjects.findById(subjectId);
+            result.add(new EnrolledSubject(Integer.parseInt(encoded, pos, c1, 10), Integer.parseInt(encoded, c1 + 1, c2, 10),
+                    shared != null ? shared : new Subject(subjectId, encoded.substring(c3 + 1, c4), encoded.substring(c4 + 1, end))));
+            pos = end + 1;
+        }
+        return result;
+    }
+
+    // The n-th '|'-separated field of a record line.
+    private static String field(String line, int n) {
+        int start = 0;
+        for (int i = 0; i < n; i++) start = line.indexOf('|', start) + 1;
+        int end = line.indexOf('|', start);
+        return line.substring(start, end < 0 ? line.length() : end);
+    }
+
+    // Caller holds the monitor. Copies the live blocks, still compressed, into the next generation.
+    private void compact() {
+        try {
+            switchGeneration(blocks);
+            compactions++;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Caller holds the monitor. Writes the given blocks into a fresh data file and commits it as the next generation.
+    private void switchGeneration(NavigableMap<String, Block> live) throws IOException {
+        long nextGeneration = generation + 1;
+        File nextFile = dataFile(nextGeneration);
+        FileChannel next = FileChannel.open(nextFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        NavigableMap<String, Block> moved = new TreeMap<>();
+        long end = 0;
+        try {
+            for (Block b : live.values()) {
+                ByteBuffer stored = ByteBuffer.allocate(b.stored);
+                while (stored.hasRemaining()) {
+                    if (data.read(stored, b.offset + stored.position()) < 0) throw new EOFException("Block at " + b.offset + " runs past the end of " + dataFile(generation));
+                }
+                writeFully(next, stored.array(), end);
+                moved.put(b.firstId, new Block(b.firstId, end, b.stored, b.raw, b.records, b.crc));
+                end += b.stored;
+            }
+            next.force(false);
+            writeIndex(nextGeneration, moved.values());
+        } catch (IOException ex) {
+            next.close();
+            nextFile.delete();
+            throw ex;
+        }
+        File previous = dataFile(generation);
+        data.close();
+        previous.delete();
+        data = next;
+        generation = nextGeneration;
+        dataEnd = end;
+        liveBytes = end;
+        blocks.clear();
+        blocks.putAll(moved);
+        cache.clear();
+    }
+
+    private long readIndex() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a compressed student index: " + indexFile);
+            if (in.readInt() != VERSION) throw new IOException("Unsupported compressed student index version: " + indexFile);
+            long gen = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                Block b = new Block(in.readUTF(), in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                blocks.put(b.firstId, b);
+                liveBytes += b.stored;
+                count += b.records;
+            }
+            return gen;
+        }
+    }
+
+    private void writeIndex(long gen, Collection<Block> index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + index.size() * 40);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(gen);
+            out.writeInt(index.size());
+            for (Block b : index) {
+                out.writeUTF(b.firstId);
+                out.writeLong(b.offset);
+                out.writeInt(b.stored);
+                out.writeInt(b.raw);
+                out.writeInt(b.records);
+                out.writeInt(b.crc);
+            }
+        }
+        GroupCommitWriter.replaceFile(indexFile, bytes.toByteArray());
+    }
+
+    // students.idx -> students.<gen>.blocks
+    private File dataFile(long gen) {
+        return new File(indexFile.getAbsoluteFile().getParentFile(), baseName() + "." + gen + ".blocks");
+    }
+
+    private String baseName() {
+        String name = indexFile.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    // Data files of earlier generations left behind by a crash during compaction or clearAll.
+    private void deleteOtherGenerations() {
+        String current = dataFile(generation).getName();
+        String prefix = baseName() + ".";
+        File[] files = indexFile.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) return;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(prefix) && name.endsWith(".blocks") && !name.equals(current)
+                    && name.substring(prefix.length(), name.length() - ".blocks".length()).chars().allMatch(Character::isDigit)) {
+                f.delete();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes, long position) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(bytes);
+        while (src.hasRemaining()) channel.write(src, position + src.position());
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    private static String emailKey(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,43 @@
+package uniapp.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Change counters shared by every process that opens the same data directory: a small memory-mapped
+ * file ({@code students.data.gen} next to {@code students.data}) holding one 8-byte counter per data file.
+ *
+ * A process bumps the counter after each write it makes, and a process that caches the data compares the
+ * counter with the last value it saw before serving a request. The mapping is shared through the page
+ * cache, so the check is one memory read: no file is opened, stat'ed or polled while nothing changes.
+ */
+final class GenerationFile {
+    private final MappedByteBuffer counters;
+
+    GenerationFile(File dataFile, int slots) {
+        File file = new File(dataFile.getPath() + ".gen");
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists()) parent.mkdirs();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            this.counters = channel.map(FileChannel.MapMode.READ_WRITE, 0, slots * 8L);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    long get(int slot) {
+        return counters.getLong(slot * 8);
+    }
+
+    /** Advance the counter after a write; returns the new value. */
+    synchronized long bump(int slot) {
+        long next = counters.getLong(slot * 8) + 1;
+        counters.putLong(slot * 8, next);
+        return next;
+    }
+}
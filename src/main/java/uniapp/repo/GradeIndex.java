@@ -0,0 +1,105 @@
+package uniapp.repo;
+
+import uniapp.model.Grade;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * One bitmap per {@link Grade} over dense student ordinals: bit n of a grade's bitmap is set when the
+ * student with ordinal n holds at least one enrolment with that grade. Grade filters and pass/fail splits
+ * become word-wise ORs and population counts instead of a pass over every student's enrolments.
+ *
+ * Ordinals are handed out on first sight and recycled when a student is removed, so the bitmaps stay as
+ * dense as the cohort (one bit per student per grade).
+ */
+final class GradeIndex {
+    private final Map<String, Integer> ordinalById = new HashMap<>();
+    private final List<String> idByOrdinal = new ArrayList<>();
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+    private final BitSet live = new BitSet();
+    private final BitSet[] byGrade = new BitSet[Grade.values().length];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    GradeIndex() {
+        for (int i = 0; i < byGrade.length; i++) byGrade[i] = new BitSet();
+    }
+
+    /** Record the grades a student currently holds, replacing whatever was indexed for it before. */
+    void put(String id, Set<Grade> grades) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinalById.get(id);
+            if (ordinal == null) {
+                ordinal = freeOrdinals.isEmpty() ? idByOrdinal.size() : freeOrdinals.pop();
+                if (ordinal == idByOrdinal.size()) idByOrdinal.add(id);
+                else idByOrdinal.set(ordinal, id);
+                ordinalById.put(id, ordinal);
+                live.set(ordinal);
+            }
+            for (Grade g : Grade.values()) byGrade[g.ordinal()].set(ordinal, grades.contains(g));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinalById.remove(id);
+            if (ordinal == null) return;
+            live.clear(ordinal);
+            for (BitSet bits : byGrade) bits.clear(ordinal);
+            idByOrdinal.set(ordinal, null);
+            freeOrdinals.push(ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            ordinalById.clear();
+            idByOrdinal.clear();
+            freeOrdinals.clear();
+            live.clear();
+            for (BitSet bits : byGrade) bits.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Ids of students holding any of {@code grades} ({@code matching}), or none of them (!{@code matching}). */
+    List<String> ids(Set<Grade> grades, boolean matching) {
+        lock.readLock().lock();
+        try {
+            BitSet bits = select(grades, matching);
+            List<String> ids = new ArrayList<>(bits.cardinality());
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) ids.add(idByOrdinal.get(i));
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int count(Set<Grade> grades, boolean matching) {
+        lock.readLock().lock();
+        try {
+            if (matching && grades.size() == 1) return byGrade[grades.iterator().next().ordinal()].cardinality();
+            return select(grades, matching).cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private BitSet select(Set<Grade> grades, boolean matching) {
+        BitSet any = new BitSet();
+        for (Grade g : grades) any.or(byGrade[g.ordinal()]);
+        if (matching) return any;
+        BitSet none = (BitSet) live.clone();
+        none.andNot(any);
+        return none;
+    }
+}
@@ -0,0 +1,169 @@
+package uniapp.repo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Group commit for repository files.
+ *
+ * A writer applies its change in memory under the owner's write lock, calls {@link #stage()} while still
+ * holding it, then releases the lock and calls {@link #awaitDurable(long)}. The first waiter becomes the leader:
+ * it waits a short window so concurrent writers can pile in, captures one snapshot of the owner's state
+ * (under the owner's read lock, which excludes writers) and performs a single durable write for the whole batch. Everyone whose change
+ * was staged before the snapshot returns once that write is on disk.
+ */
+public class GroupCommitWriter {
+    static final long DEFAULT_WINDOW_MS = 1;
+
+    /** Captures the state to persist. Runs under the owner's read lock; the returned commit runs outside it. */
+    interface Snapshot {
+        Commit capture();
+    }
+
+    /** The I/O for one batch. */
+    interface Commit {
+        void write() throws IOException;
+    }
+
+    private final Lock ownerLock;
+    private final Snapshot snapshot;
+    private final long windowMs;
+
+    private long staged;      // last ticket handed out
+    private long durable;     // last ticket known to be on disk
+    private long failedUpTo;  // last ticket whose batch failed
+    private IOException failure;
+    private boolean leaderActive;
+    private long commits;
+
+    GroupCommitWriter(Lock ownerLock, Snapshot snapshot) {
+        this(ownerLock, snapshot, DEFAULT_WINDOW_MS);
+    }
+
+    GroupCommitWriter(Lock ownerLock, Snapshot snapshot, long windowMs) {
+        this.ownerLock = ownerLock;
+        this.snapshot = snapshot;
+        this.windowMs = windowMs;
+    }
+
+    /** Register a change that has been applied in memory. Call while holding the owner's write lock. */
+    synchronized long stage() {
+        return ++staged;
+    }
+
+    /** Block until the change identified by {@code ticket} is durable. Call without holding the owner's lock. */
+    void awaitDurable(long ticket) {
+        while (true) {
+            synchronized (this) {
+                while (true) {
+                    if (durable >= ticket) return;
+                    if (failedUpTo >= ticket) throw new UncheckedIOException(failure);
+                    if (!leaderActive) {
+                        leaderActive = true;
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for commit", ex);
+                    }
+                }
+            }
+            lead();
+        }
+    }
+
+    /** Number of durable writes performed so far (one per batch). */
+    synchronized long commitCount() { return commits; }
+
+    /** True when every staged change has been written (or has failed), i.e. the file matches the owner's state. */
+    synchronized boolean idle() { return Math.max(durable, failedUpTo) >= staged; }
+
+    private void lead() {
+        long batch = 0;
+        try {
+            if (windowMs > 0) {
+                try {
+                    Thread.sleep(windowMs);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt(); // commit without waiting for the window
+                }
+            }
+            Commit commit;
+            ownerLock.lock();
+            try {
+                commit = snapshot.capture();
+                synchronized (this) { batch = staged; }
+            } finally {
+                ownerLock.unlock();
+            }
+            commit.write();
+            synchronized (this) {
+                durable = Math.max(durable, batch);
+                commits++;
+            }
+        } catch (IOException ex) {
+            synchronized (this) {
+                failure = ex;
+                failedUpTo = Math.max(failedUpTo, batch == 0 ? staged : batch);
+            }
+        } finally {
+            synchronized (this) {
+                leaderActive = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Replace {@code target} with {@code content} atomically: write a uniquely named temp file next to it, force
+     * it to disk, rename it over the target, then force the directory so the rename itself survives a crash.
+     * A crash leaves either the old or the new file, never a truncated one.
+     */
+    public static void replaceFile(File target, byte[] content) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        // unique, so concurrent writers of the same target never share a temp file
+        Path tmp = Files.createTempFile(dir.toPath(), target.getName() + ".", ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(content);
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(true);
+            }
+            try {
+                Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        forceDirectory(dir);
+    }
+
+    /** Force a directory's entries (created, renamed or deleted files) to disk. */
+    static void forceDirectory(File dir) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException ex) {
+            return; // platforms that cannot open a directory (Windows) make the rename durable themselves
+        }
+        try (FileChannel open = ch) {
+            open.force(true);
+        }
+    }
+
+    /** Force data already written to {@code file} (e.g. appended log records) to disk. */
+    static void force(File file) throws IOException {
+        if (!file.exists()) return;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            ch.force(false);
+        }
+    }
+}
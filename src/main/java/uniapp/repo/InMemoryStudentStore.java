@@ -0,0 +1,160 @@
+package uniapp.repo;
+
+import uniapp.model.Grade;
+import uniapp.model.Student;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * The {@code memory} engine: students live only in this object and nothing is written anywhere.
+ * Meant for tests and for benchmarking the services without I/O; it has the same copy semantics as the
+ * file engines. Lookups by id and email are hashed; subject and grade queries scan every student.
+ */
+public class InMemoryStudentStore implements StudentStore {
+    private final SubjectStore subjects;
+    // id -> stored student (never handed out), in id order for pagination
+    private final NavigableMap<String, Student> records = new TreeMap<>();
+    // lower-cased email -> student id
+    private final Map<String, String> byEmail = new HashMap<>();
+    // the latest published version; replaced, never modified
+    private volatile StudentSnapshot current;
+
+    public InMemoryStudentStore() {
+        this(null);
+    }
+
+    /** @param subjects canonical subjects for enrolments; may be null */
+    public InMemoryStudentStore(SubjectStore subjects) {
+        this.subjects = subjects;
+        this.current = StudentSnapshot.of(0, Collections.emptyList(), this::copy);
+    }
+
+    public Set<StoreCapability> capabilities() {
+        return EnumSet.of(StoreCapability.SNAPSHOTS, StoreCapability.ATOMIC_BATCH);
+    }
+
+    public void upsert(Student student) {
+        Student copy = copy(student);
+        synchronized (this) {
+            put(copy);
+            current = current.with(Collections.singletonMap(copy.getId(), copy));
+        }
+        student.markClean();
+    }
+
+    public void batchUpsert(Collection<Student> students) {
+        Map<String, Student> changes = new LinkedHashMap<>();
+        for (Student s : students) changes.put(s.getId(), copy(s));
+        synchronized (this) {
+            for (Student copy : changes.values()) put(copy);
+            current = current.with(changes);
+        }
+        for (Student s : students) s.markClean();
+    }
+
+    public synchronized boolean existsById(String id) {
+        return id != null && records.containsKey(id);
+    }
+
+    public synchronized boolean existsByEmail(String email) {
+        return email != null && byEmail.containsKey(emailKey(email));
+    }
+
+    public synchronized Student findByEmail(String email) {
+        if (email == null) return null;
+        String id = byEmail.get(emailKey(email));
+        return id == null ? null : copy(records.get(id));
+    }
+
+    public Student findById(String id) {
+        return current.findById(id);
+    }
+
+    public List<Student> findAll() {
+        return current.findAll();
+    }
+
+    public StudentSnapshot snapshot() {
+        return current;
+    }
+
+    public Stream<Student> stream() {
+        return current.stream();
+    }
+
+    public synchronized List<Student> page(String afterId, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page size must be positive");
+        Collection<Student> after = afterId == null ? records.values() : records.tailMap(afterId, false).values();
+        List<Student> result = new ArrayList<>(limit);
+        for (Student s : after) {
+            if (result.size() == limit) break;
+            result.add(copy(s));
+        }
+        return result;
+    }
+
+    public List<Student> findBySubject(int subjectId) {
+        return select(s -> StoreSupport.enrolledIn(s, subjectId));
+    }
+
+    public synchronized int countBySubject(int subjectId) {
+        int count = 0;
+        for (Student s : records.values()) if (StoreSupport.enrolledIn(s, subjectId)) count++;
+        return count;
+    }
+
+    public List<Student> findByAnyGrade(Set<Grade> grades) {
+        return select(s -> StoreSupport.holdsAny(s, grades));
+    }
+
+    public List<Student> findByNoGrade(Set<Grade> grades) {
+        return select(s -> !StoreSupport.holdsAny(s, grades));
+    }
+
+    public synchronized int countByAnyGrade(Set<Grade> grades) {
+        int count = 0;
+        for (Student s : records.values()) if (StoreSupport.holdsAny(s, grades)) count++;
+        return count;
+    }
+
+    public int count() {
+        return current.count();
+    }
+
+    public synchronized void deleteById(String id) {
+        if (id == null) return;
+        Student removed = records.remove(id);
+        if (removed == null) return;
+        byEmail.remove(emailKey(removed.getEmail()), id);
+        current = current.with(Collections.singletonMap(id, null));
+    }
+
+    public synchronized void clearAll() {
+        records.clear();
+        byEmail.clear();
+        current = StudentSnapshot.of(current.getVersion() + 1, Collections.emptyList(), this::copy);
+    }
+
+    // Caller holds the monitor.
+    private void put(Student s) {
+        Student previous = records.put(s.getId(), s);
+        if (previous != null) byEmail.remove(emailKey(previous.getEmail()), previous.getId());
+        byEmail.putIfAbsent(emailKey(s.getEmail()), s.getId());
+    }
+
+    private synchronized List<Student> select(Predicate<Student> filter) {
+        List<Student> result = new ArrayList<>();
+        for (Student s : records.values()) if (filter.test(s)) result.add(copy(s));
+        return result;
+    }
+
+    private Student copy(Student s) {
+        return StoreSupport.copy(s, subjects);
+    }
+
+    private static String emailKey(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+}
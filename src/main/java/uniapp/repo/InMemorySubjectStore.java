@@ -0,0 +1,56 @@
+package uniapp.repo;
+
+import uniapp.model.Subject;
+
+import java.util.*;
+
+/** Subject catalogue of the {@code memory} engine: the canonical pool of {@link SubjectRepository} without the file. */
+public class InMemorySubjectStore implements SubjectStore {
+    // id -> canonical subject, in insertion order
+    private final Map<Integer, Subject> pool = new LinkedHashMap<>();
+    // the pool as readers see it, republished on every change
+    private volatile SubjectCatalog catalog = SubjectCatalog.EMPTY;
+
+    public Set<StoreCapability> capabilities() {
+        return EnumSet.noneOf(StoreCapability.class);
+    }
+
+    public synchronized void add(Subject subject) {
+        addAll(Collections.singletonList(subject));
+    }
+
+    public synchronized void addAll(Collection<Subject> subjects) {
+        for (Subject subject : subjects) {
+            Subject canonical = pool.get(subject.getId());
+            if (canonical == null) {
+                pool.put(subject.getId(), new Subject(subject.getId(), subject.getCode(), subject.getTitle()));
+            } else {
+                canonical.setCode(subject.getCode());
+                canonical.setTitle(subject.getTitle());
+            }
+        }
+        catalog = new SubjectCatalog(pool.values(), -1);
+    }
+
+    public Subject findById(int id) {
+        return catalog.findById(id);
+    }
+
+    public Subject findByCode(String code) {
+        return catalog.findByCode(code);
+    }
+
+    public List<Subject> findAll() {
+        return catalog.findAll();
+    }
+
+    public synchronized void removeById(int id) {
+        pool.remove(id);
+        catalog = new SubjectCatalog(pool.values(), -1);
+    }
+
+    public synchronized void clearAll() {
+        pool.clear();
+        catalog = SubjectCatalog.EMPTY;
+    }
+}
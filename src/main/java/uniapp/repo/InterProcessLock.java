@@ -0,0 +1,149 @@
+package uniapp.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reader/writer lock between processes over one byte of a lock file ({@code students.data.lock}, one byte
+ * per shard), built on {@link FileChannel#lock(long, long, boolean)}: shared holds for reading the data file,
+ * an exclusive hold for changing it.
+ *
+ * The OS lock belongs to the whole JVM, so this class only excludes other processes. Threads of this process
+ * coordinate through the repository's own locks and simply join a hold the process already has: an exclusive
+ * hold also covers reads, and the OS lock is released when the last local holder unlocks. That lets every
+ * concurrent writer of one process share a single exclusive hold (and one group commit).
+ */
+public final class InterProcessLock {
+    // one instance per lock file region per JVM; a second FileLock on the same region would be refused
+    private static final Map<String, InterProcessLock> LOCKS = new HashMap<>();
+    private static final Map<String, FileChannel> CHANNELS = new HashMap<>();
+
+    private final FileChannel channel;
+    private final long position;
+    private FileLock held;
+    private boolean shared;
+    private int holders;
+    private long acquisitions;
+    private long contended;
+    private long waitNanos;
+
+    private InterProcessLock(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /** The lock guarding region {@code region} of {@code dataFile}'s lock file. */
+    public static synchronized InterProcessLock of(File dataFile, int region) {
+        String path = new File(dataFile.getPath() + ".lock").getAbsolutePath();
+        return LOCKS.computeIfAbsent(path + "#" + region, k -> new InterProcessLock(channel(path), region));
+    }
+
+    private static FileChannel channel(String path) {
+        return CHANNELS.computeIfAbsent(path, p -> {
+            File file = new File(p);
+            if (!file.getParentFile().exists()) file.getParentFile().mkdirs();
+            try {
+                return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /** Hold off other processes' writers; any hold this process already has is enough. */
+    public synchronized void lockShared() {
+        if (holders > 0) {
+            holders++;
+            return;
+        }
+        acquire(true);
+    }
+
+    /** Hold off every other process. Waits for this process's readers to finish first. */
+    public synchronized void lockExclusive() {
+        long start = System.nanoTime();
+        while (holders > 0 && shared) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the file lock", ex);
+            }
+        }
+        waitNanos += System.nanoTime() - start;
+        if (holders > 0) {
+            holders++;
+            return;
+        }
+        acquire(false);
+    }
+
+    /**
+     * Take the exclusive hold only if nobody, in this process or another, holds the lock; never waits.
+     * For owners that keep the lock from open to close.
+     */
+    public synchronized boolean tryLockExclusive() {
+        if (holders > 0) return false;
+        try {
+            FileLock lock = channel.tryLock(position, 1, false);
+            if (lock == null) {
+                contended++;
+                return false;
+            }
+            held = lock;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        shared = false;
+        holders = 1;
+        acquisitions++;
+        return true;
+    }
+
+    public synchronized void unlock() {
+        if (holders == 0) throw new IllegalStateException("File lock is not held");
+        if (--holders > 0) return;
+        try {
+            held.release();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            held = null;
+            notifyAll();
+        }
+    }
+
+    /** OS locks taken so far (holds joined by other local threads are not counted). */
+    synchronized long acquisitions() { return acquisitions; }
+
+    /** OS locks that had to wait for another process. */
+    synchronized long contended() { return contended; }
+
+    /** Total time spent waiting for the lock, in nanoseconds. */
+    synchronized long waitNanos() { return waitNanos; }
+
+    private void acquire(boolean sharedMode) {
+        long start = System.nanoTime();
+        try {
+            FileLock lock = channel.tryLock(position, 1, sharedMode);
+            if (lock == null) {
+                contended++;
+                lock = channel.lock(position, 1, sharedMode);
+            }
+            held = lock;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            waitNanos += System.nanoTime() - start;
+        }
+        shared = sharedMode;
+        holders = 1;
+        acquisitions++;
+    }
+}
@@ -0,0 +1,225 @@
+package uniapp.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Checksummed record lines: {@code @<length>,<crc>|<record>}, where length is the UTF-8 byte length of the
+ * record and crc its CRC32C in 8 hex digits. Lines without the {@code @} frame (files written before framing)
+ * are still read, unverified, and gain a frame the next time the file is rewritten; such a file's last line
+ * may lack its newline, which a framed line never does.
+ *
+ * {@link #scan} verifies a whole file in parallel chunks over memory-mapped regions, so the recovery check
+ * is one pass at checksum speed before the replay; the replay then reads only the ranges that verified.
+ */
+final class RecordFrames {
+    static final char FRAME = '@';
+    // chunks below this are not worth a task of their own
+    private static final long MIN_CHUNK = 4L << 20;
+    // one mapped region per chunk must fit in a MappedByteBuffer
+    private static final long MAX_CHUNK = 1L << 30;
+
+    private RecordFrames() {
+    }
+
+    /** Append {@code record} to {@code sb} as one framed line. */
+    static void append(StringBuilder sb, String record) {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, bytes.length);
+        String hex = Long.toHexString(crc.getValue());
+        sb.append(FRAME).append(bytes.length).append(',');
+        for (int i = hex.length(); i < 8; i++) sb.append('0');
+        sb.append(hex).append('|').append(record).append(System.lineSeparator());
+    }
+
+    /** Result of verifying a file: the byte ranges worth replaying and what was rejected. */
+    static final class Scan {
+        final long size;
+        final List<long[]> good = new ArrayList<>();
+        int droppedRecords;
+        long droppedBytes;
+        // start of the run of corrupt lines that reaches the end of the file; size if there is none
+        long tailStart;
+        int tailRecords;
+        // the last line is an unframed one without a newline: an append must start a new line first
+        boolean unterminated;
+        long elapsedNanos;
+
+        Scan(long size) {
+            this.size = size;
+            this.tailStart = size;
+        }
+
+        boolean hasTornTail() { return tailStart < size; }
+    }
+
+    /** Verify every line of the first {@code size} bytes of {@code channel}. */
+    static Scan scan(FileChannel channel, long size) throws IOException {
+        long started = System.nanoTime();
+        List<long[]> chunks = chunks(channel, size);
+        List<List<long[]>> bad;
+        try {
+            bad = IntStream.range(0, chunks.size()).parallel().mapToObj(i -> {
+                long[] chunk = chunks.get(i);
+                try {
+                    ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+                    return badLines(region, chunk[0]);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        Scan scan = new Scan(size);
+        List<long[]> rejected = new ArrayList<>();
+        bad.forEach(rejected::addAll);
+        for (long[] line : rejected) {
+            scan.droppedRecords++;
+            scan.droppedBytes += line[1] - line[0];
+        }
+        // corrupt lines running up to the end of the file are a torn tail
+        int kept = rejected.size();
+        while (kept > 0 && rejected.get(kept - 1)[1] == scan.tailStart) {
+            scan.tailStart = rejected.get(--kept)[0];
+            scan.tailRecords++;
+        }
+        long pos = 0;
+        for (long[] line : rejected.subList(0, kept)) {
+            if (line[0] > pos) scan.good.add(new long[]{pos, line[0]});
+            pos = line[1];
+        }
+        if (scan.tailStart > pos) scan.good.add(new long[]{pos, scan.tailStart});
+        if (scan.tailStart == size && size > 0) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            scan.unterminated = last.get(0) != '\n';
+        }
+        scan.elapsedNanos = System.nanoTime() - started;
+        return scan;
+    }
+
+    /**
+     * Byte ranges {@code [start, end)} of the lines in {@code buf} (from its position to its limit) that fail
+     * verification, offset by {@code base}. A framed line is rejected if its frame is malformed, its length or
+     * checksum does not match, or it has no terminating newline (a torn write). Unframed lines are never
+     * rejected: they come from files written before framing, whose last line may simply lack its newline.
+     */
+    static List<long[]> badLines(ByteBuffer buf, long base) {
+        List<long[]> bad = new ArrayList<>();
+        int from = buf.position();
+        int limit = buf.limit();
+        CRC32C crc = new CRC32C();
+        int lineStart = from;
+        while (lineStart < limit) {
+            // a sound frame says where its line ends, so only unframed or damaged lines are searched for the newline
+            int next = framedLineEnd(buf, lineStart, limit, crc);
+            if (next < 0) {
+                int newline = lineStart;
+                while (newline < limit && buf.get(newline) != '\n') newline++;
+                next = newline < limit ? newline + 1 : limit;
+                if (buf.get(lineStart) == FRAME) bad.add(new long[]{base + lineStart - from, base + next - from});
+            }
+            lineStart = next;
+        }
+        return bad;
+    }
+
+    // End (after the newline) of the framed line at start if its length and checksum match; -1 otherwise.
+    private static int framedLineEnd(ByteBuffer buf, int start, int limit, CRC32C crc) {
+        if (buf.get(start) != FRAME) return -1;
+        int i = start + 1;
+        long length = 0;
+        int digits = 0;
+        while (i < limit && buf.get(i) >= '0' && buf.get(i) <= '9' && digits < 10) {
+            length = length * 10 + (buf.get(i++) - '0');
+            digits++;
+        }
+        if (digits == 0 || i >= limit || buf.get(i++) != ',') return -1;
+        long expected = 0;
+        for (int k = 0; k < 8; k++, i++) {
+            if (i >= limit) return -1;
+            int d = Character.digit(buf.get(i), 16);
+            if (d < 0) return -1;
+            expected = expected << 4 | d;
+        }
+        if (i >= limit || buf.get(i++) != '|') return -1;
+        long end = i + length;
+        if (end >= limit) return -1;
+        int next;
+        if (buf.get((int) end) == '\n') next = (int) end + 1;
+        else if (buf.get((int) end) == '\r' && end + 1 < limit && buf.get((int) end + 1) == '\n') next = (int) end + 2;
+        else return -1;
+        ByteBuffer payload = buf.duplicate();
+        payload.limit((int) end).position(i);
+        crc.reset();
+        crc.update(payload);
+        return crc.getValue() == expected ? next : -1;
+    }
+
+    // [start, end) chunks of about equal size, each ending just after a newline (or at the end of the file).
+    private static List<long[]> chunks(FileChannel channel, long size) throws IOException {
+        if (size == 0) return Collections.emptyList();
+        int wanted = (int) Math.max(Math.min(size / MIN_CHUNK, Runtime.getRuntime().availableProcessors() * 4L),
+                (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        List<long[]> chunks = new ArrayList<>();
+        long start = 0;
+        for (int i = 1; i < wanted && start < size; i++) {
+            long end = lineEndAfter(channel, Math.max(start, size * i / wanted), size);
+            if (end > start) chunks.add(new long[]{start, end});
+            start = end;
+        }
+        if (start < size) chunks.add(new long[]{start, size});
+        return chunks;
+    }
+
+    private static long lineEndAfter(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(8192);
+        while (pos < size) {
+            window.clear();
+            int n = channel.read(window, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) if (window.get(i) == '\n') return pos + i + 1;
+            pos += n;
+        }
+        return size;
+    }
+
+    /** A stream over the given {@code [start, end)} ranges of {@code channel}, in order, read with positional reads. */
+    static InputStream open(FileChannel channel, List<long[]> ranges) {
+        return new InputStream() {
+            private int range;
+            private long pos = ranges.isEmpty() ? 0 : ranges.get(0)[0];
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                while (range < ranges.size() && pos >= ranges.get(range)[1]) {
+                    if (++range < ranges.size()) pos = ranges.get(range)[0];
+                }
+                if (range >= ranges.size()) return -1;
+                int n = (int) Math.min(len, ranges.get(range)[1] - pos);
+                n = channel.read(ByteBuffer.wrap(b, off, n), pos);
+                if (n < 0) return -1;
+                pos += n;
+                return n;
+            }
+        };
+    }
+}
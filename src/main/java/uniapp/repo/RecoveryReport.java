@@ -0,0 +1,47 @@
+package uniapp.repo;
+
+import java.io.File;
+
+/** What the recovery scan of one data file found when it was loaded. */
+public final class RecoveryReport {
+    private final File file;
+    private final long scannedBytes;
+    private final int droppedRecords;
+    private final long droppedBytes;
+    private final long truncatedBytes;
+    private final long elapsedNanos;
+
+    RecoveryReport(File file, long scannedBytes, int droppedRecords, long droppedBytes, long truncatedBytes, long elapsedNanos) {
+        this.file = file;
+        this.scannedBytes = scannedBytes;
+        this.droppedRecords = droppedRecords;
+        this.droppedBytes = droppedBytes;
+        this.truncatedBytes = truncatedBytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public File getFile() { return file; }
+
+    public long getScannedBytes() { return scannedBytes; }
+
+    /** Records whose frame or checksum did not verify, including those in a truncated tail. */
+    public int getDroppedRecords() { return droppedRecords; }
+
+    public long getDroppedBytes() { return droppedBytes; }
+
+    /** Size of the torn tail cut off the end of the file (0 if there was none). */
+    public long getTruncatedBytes() { return truncatedBytes; }
+
+    /** Time spent verifying checksums and truncating, excluding the replay itself. */
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    public boolean isClean() { return droppedRecords == 0; }
+
+    @Override
+    public String toString() {
+        String summary = file.getName() + ": scanned " + scannedBytes + " bytes in " + elapsedNanos / 1_000_000 + " ms";
+        if (isClean()) return summary + ", all records intact";
+        return summary + ", dropped " + droppedRecords + " corrupt record(s) (" + droppedBytes + " bytes"
+                + (truncatedBytes > 0 ? ", " + truncatedBytes + " of them cut off as a torn tail)" : ")");
+    }
+}
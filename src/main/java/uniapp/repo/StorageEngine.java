@@ -0,0 +1,105 @@
+package uniapp.repo;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The storage engines the apps can run on, chosen with {@code -Duniapp.storage=<engine>} (default {@code log}).
+ * Every engine serves the same {@link StudentStore} / {@link SubjectStore} API, so the same workload can be
+ * benchmarked on each; {@link StudentStore#capabilities()} says what each one guarantees.
+ *
+ * The text and log engines can also be hash-sharded over {@code students-N.data} with
+ * {@code -Duniapp.shards=<count>} (default 1, a single students.data). An unsharded file is split over the
+ * shards on first use; after that, every process sharing the data directory must use the same count.
+ */
+public enum StorageEngine {
+    /** students.data rewritten on every commit (the original format). */
+    TEXT,
+    /** students.data as an append-only log, compacted in the background. */
+    LOG,
+    /** Nothing on disk; for tests and benchmarks. */
+    MEMORY,
+    /** Fixed-size slots in the memory-mapped students.bin, converted from students.data on first use. */
+    BINARY,
+    /** Deflate-compressed 16 KB blocks under the block index students.idx, converted from students.data on first use. */
+    COMPRESSED,
+    /** Every field off the heap in direct-buffer columns; nothing on disk. Grade and roster counts scan the columns. */
+    COLUMNAR;
+
+    public static final String PROPERTY = "uniapp.storage";
+    public static final String SHARDS_PROPERTY = "uniapp.shards";
+
+    /** The engine named by the {@value #PROPERTY} system property. */
+    public static StorageEngine fromConfig() {
+        return parse(System.getProperty(PROPERTY, "log"));
+    }
+
+    public static StorageEngine parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Unknown storage engine '" + name + "'; expected one of "
+                    + Arrays.toString(values()));
+        }
+    }
+
+    /** The shard count named by the {@value #SHARDS_PROPERTY} system property. */
+    public static int shardsFromConfig() {
+        String value = System.getProperty(SHARDS_PROPERTY, "1").trim();
+        try {
+            int shards = Integer.parseInt(value);
+            if (shards >= 1) return shards;
+        } catch (NumberFormatException ignore) {
+        }
+        throw new IllegalArgumentException("Invalid " + SHARDS_PROPERTY + " '" + value + "'; expected a count of at least 1");
+    }
+
+    public SubjectStore openSubjects(File dataDir) {
+        return this == MEMORY || this == COLUMNAR ? new InMemorySubjectStore() : new SubjectRepository(new File(dataDir, "subjects.data"));
+    }
+
+    /** Open with the shard count from {@link #shardsFromConfig()}. */
+    public StudentStore openStudents(File dataDir, SubjectStore subjects) {
+        return openStudents(dataDir, subjects, shardsFromConfig());
+    }
+
+    /**
+     * @param subjects the catalogue enrolments resolve against, normally from {@link #openSubjects}
+     * @param shards   shard files for the text and log engines; the other engines accept only 1
+     */
+    public StudentStore openStudents(File dataDir, SubjectStore subjects, int shards) {
+        if (shards < 1) throw new IllegalArgumentException("Shard count must be at least 1");
+        if (shards > 1 && this != TEXT && this != LOG) throw new IllegalArgumentException("The " + this + " engine cannot be sharded");
+        File text = new File(dataDir, "students.data");
+        switch (this) {
+            case TEXT:
+            case LOG: {
+                StudentRepository repo = new StudentRepository(text, this == LOG, shards);
+                repo.setSubjectRepository(subjects);
+                return repo;
+            }
+            case MEMORY:
+                return new InMemoryStudentStore(subjects);
+            case COLUMNAR:
+                return new ColumnarStudentStore(subjects);
+            case BINARY: {
+                File binary = new File(dataDir, "students.bin");
+                if (!binary.exists() && StudentRepository.hasStoredData(text)) BinaryStudentRepository.convertFromText(text, binary, subjects);
+                return new BinaryStudentRepository(binary, subjects);
+            }
+            case COMPRESSED: {
+                File index = new File(dataDir, "students.idx");
+                if (!index.exists() && StudentRepository.hasStoredData(text)) CompressedStudentRepository.convertFromText(text, index, subjects);
+                return new CompressedStudentRepository(index, subjects);
+            }
+            default:
+                throw new IllegalStateException("Unhandled engine " + this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
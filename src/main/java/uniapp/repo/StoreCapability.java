@@ -0,0 +1,21 @@
+package uniapp.repo;
+
+/**
+ * What a storage engine guarantees beyond the {@link StudentStore} / {@link SubjectStore} contract.
+ * Callers that depend on one (e.g. a report that needs a cheap consistent snapshot) can check for it,
+ * and benchmarks can print them next to the figures.
+ */
+public enum StoreCapability {
+    /** Data survives a restart. */
+    PERSISTENT,
+    /** A write is on disk when it returns. */
+    DURABLE_WRITES,
+    /** Email, subject and grade queries are answered from indexes rather than by scanning every student. */
+    SECONDARY_INDEXES,
+    /** {@code snapshot()} is constant-time and never blocks writers. */
+    SNAPSHOTS,
+    /** A batch write is all-or-nothing: readers, and a restart after a crash, see all of it or none of it. */
+    ATOMIC_BATCH,
+    /** Several processes may open the same files at once and see each other's writes. */
+    CROSS_PROCESS
+}
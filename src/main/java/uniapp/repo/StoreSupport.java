@@ -0,0 +1,41 @@
+package uniapp.repo;
+
+import uniapp.model.EnrolledSubject;
+import uniapp.model.Grade;
+import uniapp.model.Student;
+import uniapp.model.Subject;
+
+import java.util.Set;
+
+/** Copying and matching shared by the engines that answer queries by scanning their own Student objects. */
+final class StoreSupport {
+    private StoreSupport() {
+    }
+
+    /** A clean deep copy whose enrolments point at {@code subjects}' canonical instances where there is one. */
+    static Student copy(Student s, SubjectStore subjects) {
+        Student copy = new Student(s.getId(), s.getName(), s.getEmail(), s.getPassword());
+        for (EnrolledSubject e : s.getEnrolments()) {
+            Subject subj = e.getSubject();
+            Subject shared = subjects == null ? null : subjects.findById(subj.getId());
+            copy.addEnrolment(new EnrolledSubject(e.getId(), e.getMark(),
+                    shared != null ? shared : new Subject(subj.getId(), subj.getCode(), subj.getTitle())));
+        }
+        copy.markClean();
+        return copy;
+    }
+
+    static boolean enrolledIn(Student s, int subjectId) {
+        for (EnrolledSubject e : s.getEnrolments()) {
+            if (e.getSubject().getId() == subjectId) return true;
+        }
+        return false;
+    }
+
+    static boolean holdsAny(Student s, Set<Grade> grades) {
+        for (EnrolledSubject e : s.getEnrolments()) {
+            if (grades.contains(e.getGrade())) return true;
+        }
+        return false;
+    }
+}
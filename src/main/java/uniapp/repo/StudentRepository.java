@@ -1,134 +1,1315 @@
 package uniapp.repo;
 
 import uniapp.model.EnrolledSubject;
+import uniapp.model.Grade;
 import uniapp.model.Student;
 import uniapp.model.Subject;
+import uniapp.util.RecordReader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Student storage backed by a pipe-delimited text file: the {@code text} and {@code log} engines of
+ * {@link StorageEngine}.
+ * The file is read once into memory; reads are served from the in-memory indexes
+ * and every write is persisted straight through to the file (write-through cache).
+ * Callers always receive copies, so mutating a returned Student never touches the cache.
+ *
+ * In append-log mode the file is a log instead of a snapshot: each upsert appends one
+ * record line and each delete appends a tombstone ({@code -id}), so a write costs one
+ * record regardless of cohort size. The log is replayed into the indexes on startup
+ * (later lines win) and compacted in the background once dead records pile up.
+ *
+ * Once a {@link SubjectStore} is attached, enrolments are stored as {@code enrolmentId,mark,subjectId}
+ * and resolved to the repository's canonical Subject instances, so every enrolment in one subject shares
+ * one object and picks up renames. Records still carrying the subject code and title (the original
+ * format) are read as before and rewritten in the short form on first load.
+ *
+ * Enrolments are decoded lazily: a loaded student keeps its enrolment list in the stored form until
+ * someone calls {@link Student#getEnrolments()} on a copy, so lookups that only need id, email and password
+ * (login) never build enrolment objects. The subject and grade indexes read the stored form directly.
+ *
+ * Writes are driven by the student's dirty fields ({@link Student#dirtyFields()}): an upsert of an
+ * unchanged stored student writes nothing, and in append-log mode a change to name, email or password
+ * alone appends one small field record ({@code =id|field|value}) instead of the whole student.
+ *
+ * With more than one shard, students are split by id hash across {@code students-0.data},
+ * {@code students-1.data}, ... Each shard has its own lock, group-commit writer and compaction, so
+ * writes to different shards never wait for each other; loading and findAll fan out over the shards
+ * in parallel. The email, ordered-id, subject and grade indexes span all shards and are safe for
+ * concurrent use. The shard count is recorded in {@code students.data.shards} and must be used to
+ * reopen the data.
+ *
+ * Reads are served from the current {@link StudentSnapshot} without taking any lock. Every write
+ * publishes a new snapshot version (copy-on-write with structural sharing) while it holds its shard's
+ * exclusive lock, which it keeps only for the index updates, not while it waits for the disk. Long
+ * reports should iterate one {@link #snapshot()}: they see one consistent version and never delay writers.
+ *
+ * Writes are durable when they return. Concurrent writers are batched by a {@link GroupCommitWriter}:
+ * in text mode one batch is one temp-file write, fsync and atomic rename; in log mode one fsync.
+ *
+ * Every record line is framed with its length and CRC32C ({@link RecordFrames}). Loading a shard first
+ * verifies the whole file (in parallel chunks): a torn tail left by a crash is cut off, corrupt lines
+ * elsewhere are skipped, and {@link #recoveryReports()} says what was dropped. Unframed lines from older
+ * files are still accepted and are framed when the file is next rewritten.
+ *
+ * Several processes may share the data directory. Every write bumps the shard's counter in
+ * {@code students.data.gen} ({@link GenerationFile}), and every request first compares the counters with
+ * the ones this process last saw. When another process has written, a log shard replays just the
+ * records appended since this process last read it; a rewritten file (text-mode save, compaction) is
+ * re-read and only the students that differ are re-indexed and published.
+ *
+ * Processes also exclude each other per shard through {@link InterProcessLock} ({@code students.data.lock}):
+ * reading a shard file takes a shared lock, and a write holds the exclusive lock while it catches up
+ * with other processes and changes the file, so a record is never interleaved with or lost to another
+ * process's write. Reads served from memory take no file lock at all. A log append keeps the exclusive
+ * lock only for the append; a text-mode write keeps it until its rewrite is durable, and the concurrent
+ * writers of one process share that hold and its group commit.
+ */
+public class StudentRepository implements StudentStore {
+    private static final char TOMBSTONE = '-';
+    private static final char FIELD_UPDATE = '=';
+    // compact once dead records exceed both this floor and the live record count
+    private static final int MIN_DEAD_RECORDS_FOR_COMPACTION = 1000;
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "student-log-compactor");
+        t.setDaemon(true);
+        return t;
+    });
 
-public class StudentRepository {
     private final File storageFile;
+    private final boolean appendLog;
+    private final Shard[] shards;
+    // lower-cased email -> student id, across all shards
+    private final ConcurrentMap<String, String> byEmail = new ConcurrentHashMap<>();
+    // ids in ascending order across all shards, for keyset pagination
+    private final NavigableSet<String> orderedIds = new ConcurrentSkipListSet<>();
+    // subject id -> ids of the students enrolled in it, so rosters never scan the cohort
+    private final ConcurrentMap<Integer, NavigableSet<String>> bySubject = new ConcurrentHashMap<>();
+    // grade -> bitmap of the students holding it
+    private final GradeIndex byGrade = new GradeIndex();
+    private final Object loadLock = new Object();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong skippedWrites = new AtomicLong();
+    private final AtomicLong externalChanges = new AtomicLong();
+    // per-shard change counters shared with other processes; set before the first load
+    private volatile GenerationFile generations;
+    // canonical subjects for enrolments; null stores code and title with every enrolment
+    private volatile SubjectStore subjects;
+    // enrolments read in the long form during the current load
+    private final AtomicInteger longFormEnrolments = new AtomicInteger();
+    private volatile boolean loaded;
+    // the latest published version; replaced, never modified
+    private volatile StudentSnapshot current;
+    private final Object publishLock = new Object();
 
     public StudentRepository(File storageFile) {
+        this(storageFile, false);
+    }
+
+    public StudentRepository(File storageFile, boolean appendLog) {
+        this(storageFile, appendLog, 1);
+    }
+
+    /**
+     * @param shardCount number of shard files; 1 keeps every student in {@code storageFile} itself.
+     *                   An existing unsharded file is redistributed over the shards on first load and
+     *                   kept as {@code students.data.bak}; the count is recorded next to the data, and
+     *                   opening the data with a different count fails.
+     */
+    public StudentRepository(File storageFile, boolean appendLog, int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("Shard count must be at least 1");
         this.storageFile = storageFile;
+        this.appendLog = appendLog;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(shardCount == 1 ? storageFile : shardFile(storageFile, i), i);
+        }
+    }
+
+    /**
+     * Resolve enrolments through {@code subjects} and store them by subject id only.
+     * Call before the repository is first used.
+     */
+    public void setSubjectRepository(SubjectStore subjects) {
+        this.subjects = subjects;
+    }
+
+    /** Always indexed, snapshotting, durable and shareable; a batch is atomic only with one text-mode file. */
+    public Set<StoreCapability> capabilities() {
+        Set<StoreCapability> capabilities = EnumSet.of(StoreCapability.PERSISTENT, StoreCapability.DURABLE_WRITES,
+                StoreCapability.SECONDARY_INDEXES, StoreCapability.SNAPSHOTS, StoreCapability.CROSS_PROCESS);
+        if (!appendLog && shards.length == 1) capabilities.add(StoreCapability.ATOMIC_BATCH);
+        return capabilities;
+    }
+
+    /**
+     * Insert or replace a student. Only dirty students are written; once the write is durable the
+     * caller's student is marked clean.
+     */
+    public void upsert(Student student) {
+        Set<Student.Field> changes = student.dirtyFields();
+        Student copy = deepCopy(student);
+        ensureLoaded();
+        Shard shard = shardFor(copy.getId());
+        long ticket;
+        boolean staged = false;
+        shard.beginWrite();
+        try {
+            boolean stored = shard.records.containsKey(copy.getId());
+            if (stored && changes.isEmpty()) {
+                skippedWrites.incrementAndGet();
+                return;
+            }
+            boolean fieldRecords = appendLog && stored && !changes.contains(Student.Field.ENROLMENTS);
+            if (fieldRecords) {
+                // only the dirty fields reach the log, so only they may change in memory; the rest of the
+                // caller's copy may be stale and must not outlive a reload
+                copy = withFields(shard.records.get(copy.getId()), copy, changes);
+            }
+            shard.put(copy);
+            publish(Collections.singletonMap(copy.getId(), copy));
+            if (appendLog) {
+                if (fieldRecords) {
+                    // the stored record stays live; only the field records become dead at compaction
+                    shard.appendRaw(formatFieldUpdates(copy, changes));
+                    shard.deadRecords += changes.size();
+                } else {
+                    shard.append(format(copy));
+                    if (stored) shard.deadRecords++;
+                }
+                shard.maybeScheduleCompaction();
+            }
+            ticket = shard.committer.stage();
+            staged = true;
+        } finally {
+            shard.endWrite(staged);
+        }
+        shard.awaitDurable(ticket);
+        student.markClean();
     }
 
-    public synchronized void upsert(Student student) {
-        Map<String, Student> all = indexById(findAll());
-        all.put(student.getId(), deepCopy(student));
-        writeAll(new ArrayList<>(all.values()));
-    }
-
-    public synchronized void save(Student student) { upsert(student); }
-
-    public synchronized Student findByEmail(String email) {
-        for (Student s : findAll()) {
-            if (s.getEmail().equalsIgnoreCase(email)) return s;
-        }
-        return null;
-    }
-
-    public synchronized Student findById(String id) {
-        for (Student s : findAll()) {
-            if (s.getId().equals(id)) return s;
-        }
-        return null;
-    }
-
-    public synchronized List<Student> findAll() {
-        if (!storageFile.exists()) return new ArrayList<>();
-        List<Student> result = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(storageFile), StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                // Format: id|name|email|password|enrolmentCount|[enrolmentId,mark,subjectId,code,title];...
-                String[] parts = line.split("\\|", -1);
-                if (parts.length < 5) continue;
-                String id = parts[0];
-                String name = parts[1];
-                String email = parts[2];
-                String password = parts[3];
-                int enrolmentCount = Integer.parseInt(parts[4]);
-                Student s = new Student(id, name, email, password);
-                if (parts.length >= 6 && enrolmentCount > 0) {
-                    String[] enrolments = parts[5].split(";", -1);
-                    for (String e : enrolments) {
-                        if (e.isEmpty()) continue;
-                        String[] ep = e.split(",", -1);
-                        if (ep.length < 5) continue;
-                        int enrolId = Integer.parseInt(ep[0]);
-                        int mark = Integer.parseInt(ep[1]);
-                        int subjectId = Integer.parseInt(ep[2]);
-                        String code = ep[3];
-                        String title = ep[4];
-                        Subject subj = new Subject(subjectId, code, title);
-                        uniapp.model.EnrolledSubject es = new uniapp.model.EnrolledSubject(enrolId, mark, subj);
-                        s.addEnrolment(es);
+    /**
+     * Upsert many students with a single commit per shard: one file rewrite in text mode, one fsync of
+     * the appended records in log mode.
+     */
+    public void batchUpsert(Collection<Student> students) {
+        if (students.isEmpty()) return;
+        ensureLoaded();
+        Map<Shard, List<Student>> byShard = new TreeMap<>(Comparator.comparingInt((Shard shard) -> shard.index));
+        for (Student s : students) {
+            if (!s.isDirty() && existsById(s.getId())) {
+                skippedWrites.incrementAndGet();
+                continue;
+            }
+            byShard.computeIfAbsent(shardFor(s.getId()), k -> new ArrayList<>()).add(deepCopy(s));
+        }
+        // shards in index order, so two processes holding text-mode locks never wait on each other in a cycle
+        Map<Shard, Long> tickets = new LinkedHashMap<>();
+        for (Map.Entry<Shard, List<Student>> entry : byShard.entrySet()) {
+            Shard shard = entry.getKey();
+            boolean staged = false;
+            shard.beginWrite();
+            try {
+                StringBuilder records = new StringBuilder();
+                Map<String, Student> published = new HashMap<>();
+                for (Student copy : entry.getValue()) {
+                    published.put(copy.getId(), copy);
+                    boolean replaced = shard.put(copy);
+                    if (appendLog) {
+                        RecordFrames.append(records, format(copy));
+                        if (replaced) shard.deadRecords++;
                     }
                 }
-                result.add(s);
+                publish(published);
+                if (appendLog) {
+                    shard.appendRaw(records.toString());
+                    shard.maybeScheduleCompaction();
+                }
+                tickets.put(shard, shard.committer.stage());
+                staged = true;
+            } finally {
+                shard.endWrite(staged);
             }
-        } catch (IOException ex) {
-            throw new UncheckedIOException(ex);
+        }
+        tickets.forEach(Shard::awaitDurable);
+        for (Student s : students) s.markClean();
+    }
+
+    public boolean existsById(String id) {
+        if (id == null) return false;
+        ensureLoaded();
+        return orderedIds.contains(id);
+    }
+
+    public boolean existsByEmail(String email) {
+        if (email == null) return false;
+        ensureLoaded();
+        return byEmail.containsKey(emailKey(email));
+    }
+
+    public Student findByEmail(String email) {
+        if (email == null) return null;
+        ensureLoaded();
+        String id = byEmail.get(emailKey(email));
+        if (id == null) return null;
+        Student s = findById(id);
+        // the student may have changed email or been deleted since the index lookup
+        return s != null && s.getEmail().equalsIgnoreCase(email) ? s : null;
+    }
+
+    public Student findById(String id) {
+        return snapshot().findById(id);
+    }
+
+    public List<Student> findAll() {
+        StudentSnapshot snapshot = snapshot();
+        if (shards.length == 1) return snapshot.findAll();
+        return snapshot.parallelStream().collect(Collectors.toList());
+    }
+
+    /** The current version of every student, for reports that must see one consistent state. */
+    public StudentSnapshot snapshot() {
+        ensureLoaded();
+        return current;
+    }
+
+    /** Version of the latest published write. */
+    public long version() {
+        return snapshot().getVersion();
+    }
+
+    /**
+     * Cursor over all students that copies one record at a time as it is consumed, so a full pass
+     * never materializes the whole cohort. Writes made after the call are not visible to the cursor.
+     * Close the stream (try-with-resources) when done.
+     */
+    public Stream<Student> stream() {
+        return snapshot().stream();
+    }
+
+    /**
+     * Keyset pagination: up to {@code limit} students with ids greater than {@code afterId}, in id order.
+     * Pass null for the first page and the last id of a page for the next one; any page costs the same
+     * (an index seek plus {@code limit} copies) however deep it is.
+     */
+    public List<Student> page(String afterId, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("Page size must be positive");
+        ensureLoaded();
+        SortedSet<String> ids = afterId == null ? orderedIds : orderedIds.tailSet(afterId, false);
+        List<Student> result = new ArrayList<>(limit);
+        for (String id : ids) {
+            if (result.size() == limit) break;
+            Student s = findById(id);
+            if (s != null) result.add(s);
         }
         return result;
     }
 
-    public synchronized void deleteById(String id) {
-        List<Student> all = findAll();
-        all.removeIf(s -> s.getId().equals(id));
-        writeAll(all);
+    /** Ids of the students enrolled in {@code subjectId}, in id order. */
+    public List<String> findIdsBySubject(int subjectId) {
+        ensureLoaded();
+        Set<String> ids = bySubject.get(subjectId);
+        return ids == null ? new ArrayList<>() : new ArrayList<>(ids);
+    }
+
+    /** Students enrolled in {@code subjectId}, in id order; costs one lookup per enrolled student. */
+    public List<Student> findBySubject(int subjectId) {
+        return findAllById(findIdsBySubject(subjectId));
+    }
+
+    public int countBySubject(int subjectId) {
+        ensureLoaded();
+        Set<String> ids = bySubject.get(subjectId);
+        return ids == null ? 0 : ids.size();
+    }
+
+    /** Ids of the students holding at least one of {@code grades}. */
+    public List<String> findIdsByAnyGrade(Set<Grade> grades) {
+        ensureLoaded();
+        return byGrade.ids(grades, true);
+    }
+
+    /** Students holding at least one of {@code grades}; costs one lookup per match. */
+    public List<Student> findByAnyGrade(Set<Grade> grades) {
+        return findAllById(findIdsByAnyGrade(grades));
+    }
+
+    /** Students holding none of {@code grades}, including students with no enrolments. */
+    public List<Student> findByNoGrade(Set<Grade> grades) {
+        ensureLoaded();
+        return findAllById(byGrade.ids(grades, false));
     }
 
-    public synchronized void clearAll() {
-        writeAll(new ArrayList<>());
+    public int countByAnyGrade(Set<Grade> grades) {
+        ensureLoaded();
+        return byGrade.count(grades, true);
     }
 
-    private Map<String, Student> indexById(List<Student> list) {
-        Map<String, Student> map = new LinkedHashMap<>();
-        for (Student s : list) map.put(s.getId(), s);
-        return map;
+    public int count() {
+        return snapshot().count();
     }
 
-    private void writeAll(List<Student> students) {
+    public void deleteById(String id) {
+        if (id == null) return;
+        ensureLoaded();
+        Shard shard = shardFor(id);
+        long ticket;
+        boolean staged = false;
+        shard.beginWrite();
         try {
-            if (!storageFile.getParentFile().exists()) storageFile.getParentFile().mkdirs();
-            try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(storageFile, false), StandardCharsets.UTF_8))) {
-                for (Student s : students) {
-                    StringBuilder sb = new StringBuilder();
-                    sb.append(s.getId()).append('|')
-                      .append(s.getName()).append('|')
-                      .append(s.getEmail()).append('|')
-                      .append(s.getPassword()).append('|');
-                    List<EnrolledSubject> es = s.getEnrolments();
-                    sb.append(es.size()).append('|');
-                    List<String> entries = new ArrayList<>();
-                    for (EnrolledSubject e : es) {
-                        Subject subj = e.getSubject();
-                        entries.add(e.getId() + "," + e.getMark() + "," + subj.getId() + "," + subj.getCode() + "," + subj.getTitle());
-                    }
-                    sb.append(String.join(";", entries));
-                    bw.write(sb.toString());
-                    bw.newLine();
+            if (shard.remove(id) == null) return;
+            publish(Collections.singletonMap(id, null));
+            if (appendLog) {
+                shard.append(TOMBSTONE + id);
+                shard.deadRecords += 2; // the old record and the tombstone itself
+                shard.maybeScheduleCompaction();
+            }
+            ticket = shard.committer.stage();
+            staged = true;
+        } finally {
+            shard.endWrite(staged);
+        }
+        shard.awaitDurable(ticket);
+    }
+
+    public void clearAll() {
+        synchronized (loadLock) {
+            openGenerations();
+            if (!loaded) prepareShards();
+            if (current == null) current = StudentSnapshot.of(0, Collections.emptyList(), this::deepCopy);
+            loaded = true; // nothing on disk is worth loading any more
+        }
+        long[] tickets = new long[shards.length];
+        for (Shard shard : shards) {
+            shard.lock.writeLock().lock();
+            shard.fileLock.lockExclusive();
+        }
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                Shard shard = shards[i];
+                shard.records.clear();
+                shard.deadRecords = 0;
+                if (appendLog) shard.writeAll();
+                else tickets[i] = shard.committer.stage();
+            }
+            byEmail.clear();
+            orderedIds.clear();
+            bySubject.clear();
+            byGrade.clear();
+            synchronized (publishLock) {
+                current = StudentSnapshot.of(current.getVersion() + 1, Collections.emptyList(), this::deepCopy);
+            }
+        } finally {
+            for (Shard shard : shards) {
+                if (appendLog) shard.fileLock.unlock();
+                shard.lock.writeLock().unlock();
+            }
+        }
+        if (appendLog) return;
+        for (int i = 0; i < shards.length; i++) shards[i].awaitDurable(tickets[i]);
+    }
+
+    /**
+     * Rewrite the log so it holds exactly one record per live student.
+     * Runs automatically in the background in append-log mode; a no-op otherwise.
+     */
+    public void compact() {
+        for (Shard shard : shards) shard.compact();
+    }
+
+    /** Number of durable file writes so far; concurrent writers share one write per batch. */
+    public long commitCount() {
+        long total = 0;
+        for (Shard shard : shards) total += shard.committer.commitCount();
+        return total;
+    }
+
+    public int shardCount() { return shards.length; }
+
+    /** Bytes written to the student files so far, including compactions; diff it around an operation to see its cost. */
+    public long bytesWritten() { return bytesWritten.get(); }
+
+    /** Upserts that wrote nothing because the student had no changes. */
+    public long skippedWrites() { return skippedWrites.get(); }
+
+    /** What the recovery scan found in each shard file when it was loaded, in shard order. */
+    public List<RecoveryReport> recoveryReports() {
+        ensureLoaded();
+        List<RecoveryReport> reports = new ArrayList<>();
+        for (Shard shard : shards) if (shard.recovery != null) reports.add(shard.recovery);
+        return reports;
+    }
+
+    /** Students added, changed or deleted in this process's view because another process wrote them. */
+    public long externalChanges() { return externalChanges.get(); }
+
+    /** File locks taken on the shards so far, shared and exclusive. */
+    public long fileLocks() {
+        long total = 0;
+        for (Shard shard : shards) total += shard.fileLock.acquisitions();
+        return total;
+    }
+
+    /** File locks that had to wait because another process held the shard. */
+    public long contendedFileLocks() {
+        long total = 0;
+        for (Shard shard : shards) total += shard.fileLock.contended();
+        return total;
+    }
+
+    /** Total time spent waiting for shard file locks, in nanoseconds. */
+    public long fileLockWaitNanos() {
+        long total = 0;
+        for (Shard shard : shards) total += shard.fileLock.waitNanos();
+        return total;
+    }
+
+    // Caller holds the shard's write lock, so versions of one student are published in order.
+    private void publish(Map<String, Student> changes) {
+        synchronized (publishLock) {
+            current = current.with(changes);
+        }
+    }
+
+    private Shard shardFor(String id) {
+        return shards.length == 1 ? shards[0] : shards[Math.floorMod(id.hashCode(), shards.length)];
+    }
+
+    // students.data -> students-3.data
+    private static File shardFile(File storageFile, int index) {
+        String name = storageFile.getName();
+        int dot = name.lastIndexOf('.');
+        String shardName = dot < 0 ? name + "-" + index : name.substring(0, dot) + "-" + index + name.substring(dot);
+        return new File(storageFile.getAbsoluteFile().getParentFile(), shardName);
+    }
+
+    // Loads every shard on first use (in parallel when sharded), then builds the cross-shard indexes.
+    private void ensureLoaded() {
+        if (loaded) {
+            refresh();
+            return;
+        }
+        synchronized (loadLock) {
+            if (loaded) return;
+            openGenerations();
+            boolean migrated = prepareShards();
+            if (shards.length > 1 && !migrated) {
+                Arrays.stream(shards).parallel().forEach(Shard::load);
+            } else if (shards.length == 1) {
+                shards[0].load();
+            }
+            if (subjects != null && longFormEnrolments.get() > 0) {
+                // one-off migration to subject references
+                for (Shard shard : shards) shard.rewriteIfUnchanged();
+            }
+            longFormEnrolments.set(0);
+            List<Student> all = new ArrayList<>();
+            for (Shard shard : shards) all.addAll(shard.records.values());
+            current = StudentSnapshot.of(0, all, this::deepCopy);
+            for (Shard shard : shards) {
+                for (Student s : shard.records.values()) {
+                    byEmail.putIfAbsent(emailKey(s.getEmail()), s.getId());
+                    orderedIds.add(s.getId());
+                    indexSubjects(null, s);
+                    byGrade.put(s.getId(), gradesOf(s));
                 }
             }
+            loaded = true;
+            for (Shard shard : shards) shard.maybeScheduleCompaction();
+        }
+    }
+
+    // Catch up with other processes' writes; while there are none this is one counter read per shard.
+    private void refresh() {
+        GenerationFile counters = generations;
+        for (Shard shard : shards) {
+            if (counters.get(shard.index) != shard.seenGeneration) shard.catchUp();
+        }
+    }
+
+    // Caller holds loadLock. Counters are read before any file so that a write racing the load is replayed later.
+    private void openGenerations() {
+        if (generations != null) return;
+        GenerationFile counters = new GenerationFile(storageFile, shards.length);
+        for (Shard shard : shards) shard.seenGeneration = counters.get(shard.index);
+        generations = counters;
+    }
+
+    private static Object fileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException ex) {
+            return null; // not created yet
+        }
+    }
+
+    /**
+     * Check the shard count against the one recorded for the data and, on the first sharded start, record
+     * it and spread an existing unsharded file over the shard files. The unsharded file stays the live data
+     * until the shards are written, so an interrupted migration is redone; it is then renamed to
+     * {@code students.data.bak}.
+     * @return true if the shards were populated from the unsharded file
+     */
+    private boolean prepareShards() {
+        if (shards.length == 1) {
+            checkShardCount(storedShardCount(storageFile));
+            return false;
+        }
+        for (Shard shard : shards) shard.fileLock.lockExclusive();
+        try {
+            int stored = storedShardCount(storageFile);
+            if (!layoutFile(storageFile).exists() && stored > 1) {
+                // sharded before the count was recorded: the shard files hold the data, the unsharded file is stale
+                checkShardCount(stored);
+                recordShardCount();
+                retireUnshardedFile();
+                return false;
+            }
+            if (stored > 1) checkShardCount(stored);
+            else recordShardCount();
+            // a migrated file has been renamed, also by another process while we waited for the locks
+            if (!storageFile.exists()) return false;
+            Shard unsharded = new Shard(storageFile, -1);
+            unsharded.load();
+            for (Student s : unsharded.records.values()) shardFor(s.getId()).records.put(s.getId(), s);
+            for (Shard shard : shards) shard.writeAll();
+            retireUnshardedFile();
+            return true;
+        } finally {
+            for (Shard shard : shards) shard.fileLock.unlock();
+        }
+    }
+
+    /**
+     * Number of files the students stored at {@code storageFile} are split over: the recorded count, or for
+     * data sharded before counts were recorded, the highest shard file present. 1 for unsharded data.
+     */
+    public static int storedShardCount(File storageFile) {
+        File layout = layoutFile(storageFile);
+        if (layout.exists()) {
+            try {
+                return Integer.parseInt(new String(Files.readAllBytes(layout.toPath()), StandardCharsets.UTF_8).trim());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (NumberFormatException ex) {
+                throw new IllegalStateException("Unreadable shard count in " + layout);
+            }
+        }
+        String name = storageFile.getName();
+        int dot = name.lastIndexOf('.');
+        String prefix = (dot < 0 ? name : name.substring(0, dot)) + "-";
+        String suffix = dot < 0 ? "" : name.substring(dot);
+        String[] names = storageFile.getAbsoluteFile().getParentFile().list();
+        int count = 1;
+        for (String candidate : names == null ? new String[0] : names) {
+            if (!candidate.startsWith(prefix) || !candidate.endsWith(suffix)) continue;
+            String index = candidate.substring(prefix.length(), candidate.length() - suffix.length());
+            if (!index.isEmpty() && index.chars().allMatch(Character::isDigit) && index.length() < 9) {
+                count = Math.max(count, Integer.parseInt(index) + 1);
+            }
+        }
+        return count;
+    }
+
+    /** Whether students are stored at {@code storageFile}, either in the file itself or split over shard files. */
+    public static boolean hasStoredData(File storageFile) {
+        return storageFile.exists() || storedShardCount(storageFile) > 1;
+    }
+
+    // students.data -> students.data.shards
+    private static File layoutFile(File storageFile) {
+        return new File(storageFile.getPath() + ".shards");
+    }
+
+    private void checkShardCount(int stored) {
+        if (stored != shards.length) {
+            throw new IllegalStateException(storageFile + " is split over " + stored + " shard files but was opened with "
+                    + shards.length + "; open it with " + stored + " shards (-Duniapp.shards=" + stored + ")");
+        }
+    }
+
+    private void recordShardCount() {
+        try {
+            GroupCommitWriter.replaceFile(layoutFile(storageFile),
+                    (shards.length + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
         }
     }
 
+    // Move the migrated unsharded file out of the live name so nothing reads it as current data again.
+    private void retireUnshardedFile() {
+        if (!storageFile.exists()) return;
+        Path source = storageFile.toPath();
+        Path backup = source.resolveSibling(storageFile.getName() + ".bak");
+        try {
+            try {
+                Files.move(source, backup, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(source, backup, StandardCopyOption.REPLACE_EXISTING);
+            }
+            GroupCommitWriter.forceDirectory(storageFile.getAbsoluteFile().getParentFile());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static String emailKey(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    // Move the student between rosters to match its enrolments; either side may be null.
+    private void indexSubjects(Student previous, Student current) {
+        Set<Integer> before = subjectIds(previous);
+        Set<Integer> after = subjectIds(current);
+        for (Integer subjectId : before) {
+            if (after.contains(subjectId)) continue;
+            Set<String> roster = bySubject.get(subjectId);
+            if (roster != null) roster.remove(previous.getId());
+        }
+        for (Integer subjectId : after) {
+            if (before.contains(subjectId)) continue;
+            bySubject.computeIfAbsent(subjectId, k -> new ConcurrentSkipListSet<>()).add(current.getId());
+        }
+    }
+
+    // Students that were deleted since their id was looked up are skipped.
+    private List<Student> findAllById(List<String> ids) {
+        List<Student> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Student s = findById(id);
+            if (s != null) result.add(s);
+        }
+        return result;
+    }
+
+    // Index helpers read undecoded enrolments in place rather than decoding the cached student.
+    private static Set<Grade> gradesOf(Student s) {
+        Set<Grade> grades = EnumSet.noneOf(Grade.class);
+        if (s.getEncodedEnrolments() != null) {
+            scanEnrolments(s.getEncodedEnrolments(), (subjectId, mark) -> grades.add(Grade.fromMark(mark)));
+        } else {
+            for (EnrolledSubject e : s.getEnrolments()) grades.add(e.getGrade());
+        }
+        return grades;
+    }
+
+    private static Set<Integer> subjectIds(Student s) {
+        if (s == null) return Collections.emptySet();
+        Set<Integer> ids = new HashSet<>();
+        if (s.getEncodedEnrolments() != null) {
+            scanEnrolments(s.getEncodedEnrolments(), (subjectId, mark) -> ids.add(subjectId));
+        } else {
+            for (EnrolledSubject e : s.getEnrolments()) ids.add(e.getSubject().getId());
+        }
+        return ids;
+    }
+
+    private interface EnrolmentVisitor {
+        void visit(int subjectId, int mark);
+    }
+
+    // Walk an encoded enrolment list (enrolmentId,mark,subjectId[,code,title];...) without allocating.
+    private static void scanEnrolments(String encoded, EnrolmentVisitor visitor) {
+        int pos = 0;
+        int length = encoded.length();
+        while (pos < length) {
+            int end = encoded.indexOf(';', pos);
+            if (end < 0) end = length;
+            int markStart = encoded.indexOf(',', pos) + 1;
+            int subjectStart = markStart > 0 && markStart < end ? encoded.indexOf(',', markStart) + 1 : 0;
+            if (subjectStart > 0 && subjectStart <= end) {
+                int subjectEnd = encoded.indexOf(',', subjectStart);
+                if (subjectEnd < 0 || subjectEnd > end) subjectEnd = end;
+                try {
+                    visitor.visit(Integer.parseInt(encoded, subjectStart, subjectEnd, 10),
+                            Integer.parseInt(encoded, markStart, subjectStart - 1, 10));
+                } catch (NumberFormatException ignore) {
+                    // malformed enrolments are dropped, as on decode
+                }
+            }
+            pos = end + 1;
+        }
+    }
+
+    private List<EnrolledSubject> decodeEnrolments(String encoded) {
+        List<EnrolledSubject> result = new ArrayList<>(4);
+        SubjectStore pool = subjects;
+        int pos = 0;
+        int length = encoded.length();
+        while (pos < length) {
+            int end = encoded.indexOf(';', pos);
+            if (end < 0) end = length;
+            int c1 = encoded.indexOf(',', pos);
+            int c2 = c1 >= 0 && c1 < end ? encoded.indexOf(',', c1 + 1) : -1;
+            if (c2 >= 0 && c2 < end) {
+                int c3 = encoded.indexOf(',', c2 + 1);
+                if (c3 < 0 || c3 > end) c3 = end;
+                try {
+                    int enrolId = Integer.parseInt(encoded, pos, c1, 10);
+                    int mark = Integer.parseInt(encoded, c1 + 1, c2, 10);
+                    int subjectId = Integer.parseInt(encoded, c2 + 1, c3, 10);
+                    Subject subj = pool == null ? null : pool.findById(subjectId);
+                    if (subj == null) {
+                        int c4 = c3 < end ? encoded.indexOf(',', c3 + 1) : -1;
+                        subj = c4 >= 0 && c4 < end
+                                ? new Subject(subjectId, encoded.substring(c3 + 1, c4), encoded.substring(c4 + 1, end))
+                                : new Subject(subjectId, "?", "(removed subject)");
+                    }
+                    result.add(new EnrolledSubject(enrolId, mark, subj));
+                } catch (NumberFormatException ignore) {
+                    // skip the malformed enrolment
+                }
+            }
+            pos = end + 1;
+        }
+        return result;
+    }
+
+    // Enrolments still in the long form although their subject is in the catalogue, i.e. ones a rewrite would shorten.
+    private int shortenableEnrolments(String encoded) {
+        int count = 0;
+        for (String segment : encoded.split(";")) {
+            String[] fields = segment.split(",");
+            try {
+                if (fields.length >= 5 && subjects.findById(Integer.parseInt(fields[2])) != null) count++;
+            } catch (NumberFormatException ignore) {
+                // not an enrolment we could shorten
+            }
+        }
+        return count;
+    }
+
+    /** One storage file and the students hashed to it. Index fields are guarded by {@link #lock}. */
+    private final class Shard {
+        final File file;
+        final int index;
+        // id -> student, in file order
+        final Map<String, Student> records = new LinkedHashMap<>();
+        // readers share the shard; only mutations are exclusive
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        final GroupCommitWriter committer;
+        // excludes other processes; the unsharded file being migrated shares shard 0's region
+        final InterProcessLock fileLock;
+        // superseded records and tombstones still present in the log
+        int deadRecords;
+        boolean compactionScheduled;
+        // the shard's generation this process has caught up with
+        volatile long seenGeneration;
+        // how much of the file has been applied, and which file it was (a rewrite replaces the inode)
+        long knownLength;
+        Object fileKey;
+        // the file ends in an unframed line without a newline (written before framing); the next append ends it first
+        boolean unterminated;
+        // the recovery scan of the last full load
+        RecoveryReport recovery;
+
+        Shard(File file, int index) {
+            this.file = file;
+            this.index = index;
+            this.fileLock = InterProcessLock.of(storageFile, Math.max(index, 0));
+            this.committer = new GroupCommitWriter(lock.readLock(), this::captureCommit);
+        }
+
+        boolean put(Student s) {
+            Student previous = records.put(s.getId(), s);
+            if (previous != null) byEmail.remove(emailKey(previous.getEmail()), previous.getId());
+            byEmail.putIfAbsent(emailKey(s.getEmail()), s.getId());
+            orderedIds.add(s.getId());
+            indexSubjects(previous, s);
+            byGrade.put(s.getId(), gradesOf(s));
+            return previous != null;
+        }
+
+        Student remove(String id) {
+            Student removed = records.remove(id);
+            if (removed != null) {
+                byEmail.remove(emailKey(removed.getEmail()), id);
+                orderedIds.remove(id);
+                indexSubjects(removed, null);
+                byGrade.remove(id);
+            }
+            return removed;
+        }
+
+        // Apply every line of the shard file to its records in order; only the global indexes are left to the caller.
+        // Verifies the file first: a torn tail is truncated (under the exclusive lock) and corrupt lines are not replayed.
+        void load() {
+            long truncated = 0;
+            int truncatedRecords = 0;
+            long truncateNanos = 0;
+            while (true) {
+                RecordFrames.Scan scan;
+                fileLock.lockShared();
+                try {
+                    fileKey = fileKey(file);
+                    knownLength = file.length();
+                    if (!file.exists()) return;
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        scan = RecordFrames.scan(channel, knownLength);
+                        if (!scan.hasTornTail()) {
+                            unterminated = scan.unterminated;
+                            try (RecordReader r = new RecordReader(new InputStreamReader(RecordFrames.open(channel, scan.good), StandardCharsets.UTF_8))) {
+                                deadRecords = replay(r, records, null) - records.size();
+                            }
+                            // lines cut off by an earlier pass were dropped too
+                            recovery = new RecoveryReport(file, scan.size + truncated, scan.droppedRecords + truncatedRecords,
+                                    scan.droppedBytes + truncated, truncated, scan.elapsedNanos + truncateNanos);
+                            return;
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                } finally {
+                    fileLock.unlock();
+                }
+                long started = System.nanoTime();
+                long cut = truncate(scan);
+                if (cut > 0) truncatedRecords += scan.tailRecords;
+                truncated += cut;
+                truncateNanos += scan.elapsedNanos + System.nanoTime() - started;
+            }
+        }
+
+        // Cut the torn tail off, unless the file changed since it was scanned (then the caller scans again).
+        long truncate(RecordFrames.Scan scan) {
+            fileLock.lockExclusive();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                if (!Objects.equals(fileKey(file), fileKey) || channel.size() != scan.size) return 0;
+                channel.truncate(scan.tailStart);
+                channel.force(false);
+                // processes that had read past the cut re-read the file
+                if (index >= 0) generations.bump(index);
+                return scan.size - scan.tailStart;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                fileLock.unlock();
+            }
+        }
+
+        /**
+         * Apply records in file order; returns the number of record lines. With {@code changes} null, target is a map
+         * nobody else sees yet and is updated in place; otherwise target is {@link #records}, stored students are
+         * replaced rather than modified, and every change goes through the indexes and into {@code changes}.
+         */
+        int replay(RecordReader r, Map<String, Student> target, Map<String, Student> changes) throws IOException {
+            int lines = 0;
+            while (r.next()) {
+                // the frame was verified before the replay
+                if (r.skip(RecordFrames.FRAME)) r.skipField('|');
+                if (r.skip(TOMBSTONE)) {
+                    String id = r.nextField('|');
+                    if (changes == null) target.remove(id);
+                    else if (remove(id) != null) changes.put(id, null);
+                    lines++;
+                    continue;
+                }
+                if (r.skip(FIELD_UPDATE)) {
+                    // =id|field|value, written by upsert when only scalar fields changed
+                    Student s = r.fieldCount('|') < 3 ? null : target.get(r.nextField('|'));
+                    if (s != null) {
+                        if (changes != null) s = deepCopy(s);
+                        applyFieldUpdate(s, r.nextField('|'), r.nextField('|'));
+                        if (changes != null) {
+                            put(s);
+                            changes.put(s.getId(), s);
+                        }
+                    }
+                    lines++;
+                    continue;
+                }
+                Student s;
+                try {
+                    s = parse(r);
+                } catch (NumberFormatException ex) {
+                    continue; // an unframed line damaged in place
+                }
+                if (s == null) continue;
+                if (changes == null) target.put(s.getId(), s);
+                else {
+                    put(s);
+                    changes.put(s.getId(), s);
+                }
+                lines++;
+            }
+            return lines;
+        }
+
+        void applyFieldUpdate(Student s, String field, String value) {
+            switch (field) {
+                case "name": s.setName(value); break;
+                case "email": s.setEmail(value); break;
+                case "password": s.changePassword(value); break;
+                default: break;
+            }
+        }
+
+        void catchUp() {
+            lock.writeLock().lock();
+            try {
+                catchUpLocked();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // Caller holds the write lock.
+        void catchUpLocked() {
+            if (generations.get(index) == seenGeneration) return;
+            // a text-mode rewrite of ours still in flight would be undone by re-reading the older file; retry on the next request
+            if (!appendLog && !committer.idle()) return;
+            Map<String, Student> changes = new HashMap<>();
+            fileLock.lockShared();
+            try {
+                // writers bump the counter under the exclusive lock, so it cannot move while we read
+                seenGeneration = generations.get(index);
+                Object key = fileKey(file);
+                if (appendLog && key != null && key.equals(fileKey) && file.length() >= knownLength) replayTail(changes);
+                else reloadChanged(key, changes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                fileLock.unlock();
+            }
+            if (changes.isEmpty()) return;
+            publish(changes);
+            externalChanges.addAndGet(changes.size());
+            maybeScheduleCompaction();
+        }
+
+        // Another process appended to the log: apply only what it appended, up to the last complete line.
+        void replayTail(Map<String, Student> changes) throws IOException {
+            byte[] tail;
+            int length;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, channel.size() - knownLength));
+                while (buffer.hasRemaining() && channel.read(buffer, knownLength + buffer.position()) > 0) {
+                    // keep reading
+                }
+                tail = buffer.array();
+                length = buffer.position();
+            }
+            while (length > 0 && tail[length - 1] != '\n') length--;
+            if (length == 0) return;
+            InputStream verified = new ByteArrayInputStream(tail, 0, length);
+            List<long[]> bad = RecordFrames.badLines(ByteBuffer.wrap(tail, 0, length), 0);
+            if (!bad.isEmpty()) {
+                ByteArrayOutputStream kept = new ByteArrayOutputStream(length);
+                int pos = 0;
+                for (long[] line : bad) {
+                    kept.write(tail, pos, (int) line[0] - pos);
+                    pos = (int) line[1];
+                }
+                kept.write(tail, pos, length - pos);
+                verified = new ByteArrayInputStream(kept.toByteArray());
+            }
+            int live = records.size();
+            try (RecordReader r = new RecordReader(new InputStreamReader(verified, StandardCharsets.UTF_8))) {
+                deadRecords += replay(r, records, changes) - (records.size() - live);
+            }
+            knownLength += length;
+        }
+
+        // The file was replaced (text-mode save or compaction elsewhere): re-read it, but re-index only the students that differ.
+        void reloadChanged(Object key, Map<String, Student> changes) throws IOException {
+            long length = file.length();
+            Map<String, Student> fresh = new LinkedHashMap<>();
+            int lines = 0;
+            if (file.exists()) {
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    RecordFrames.Scan scan = RecordFrames.scan(channel, length);
+                    unterminated = scan.unterminated;
+                    try (RecordReader r = new RecordReader(new InputStreamReader(RecordFrames.open(channel, scan.good), StandardCharsets.UTF_8))) {
+                        lines = replay(r, fresh, null);
+                    }
+                }
+            }
+            for (String id : new ArrayList<>(records.keySet())) {
+                if (!fresh.containsKey(id) && remove(id) != null) changes.put(id, null);
+            }
+            for (Student s : fresh.values()) {
+                Student stored = records.get(s.getId());
+                if (stored != null && format(stored).equals(format(s))) continue;
+                put(s);
+                changes.put(s.getId(), s);
+            }
+            deadRecords = lines - records.size();
+            knownLength = length;
+            fileKey = key;
+        }
+
+        // Takes the write lock and the exclusive file lock, then brings the shard up to date, so the write
+        // that follows neither interleaves with nor overwrites another process's.
+        void beginWrite() {
+            lock.writeLock().lock();
+            fileLock.lockExclusive();
+            try {
+                catchUpLocked();
+            } catch (RuntimeException ex) {
+                endWrite(false);
+                throw ex;
+            }
+        }
+
+        // Once a text-mode change is staged the file lock stays held until awaitDurable.
+        void endWrite(boolean staged) {
+            if (appendLog || !staged) fileLock.unlock();
+            lock.writeLock().unlock();
+        }
+
+        // A text-mode writer keeps its exclusive hold until the rewrite carrying its change is on disk.
+        void awaitDurable(long ticket) {
+            try {
+                committer.awaitDurable(ticket);
+            } finally {
+                if (!appendLog) fileLock.unlock();
+            }
+        }
+
+        // The subject-reference migration: skipped if another process wrote since this one loaded, and retried on the next start.
+        void rewriteIfUnchanged() {
+            fileLock.lockExclusive();
+            try {
+                if (generations.get(index) == seenGeneration) writeAll();
+            } finally {
+                fileLock.unlock();
+            }
+        }
+
+        // Our own append (under the exclusive lock, right after catching up): bump the counter and move past the records.
+        void noteAppend(long lengthBefore, int appended) {
+            long generation = generations.bump(index);
+            if (lengthBefore == knownLength && generation == seenGeneration + 1) {
+                knownLength += appended;
+                seenGeneration = generation;
+            }
+        }
+
+        // Our own rewrite, under the exclusive lock; the caller caught up first, so the new file holds everything.
+        void noteRewrite(long length) {
+            long generation = generations.bump(index);
+            knownLength = length;
+            fileKey = fileKey(file);
+            if (generation == seenGeneration + 1) seenGeneration = generation;
+        }
+
+        void compact() {
+            lock.writeLock().lock();
+            try {
+                compactionScheduled = false;
+                if (!appendLog || !loaded) return;
+                fileLock.lockExclusive();
+                try {
+                    catchUpLocked(); // never compact away another process's appends
+                    if (deadRecords == 0) return;
+                    writeAll();
+                    deadRecords = 0;
+                } finally {
+                    fileLock.unlock();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void maybeScheduleCompaction() {
+            if (compactionScheduled) return;
+            if (deadRecords < MIN_DEAD_RECORDS_FOR_COMPACTION || deadRecords < records.size()) return;
+            compactionScheduled = true;
+            COMPACTOR.execute(this::compact);
+        }
+
+        // Text mode rewrites the whole file from a snapshot; log mode only has to force the records already appended.
+        GroupCommitWriter.Commit captureCommit() {
+            if (appendLog) return () -> GroupCommitWriter.force(file);
+            byte[] content = render(records.values());
+            return () -> {
+                GroupCommitWriter.replaceFile(file, content);
+                bytesWritten.addAndGet(content.length);
+                long generation = generations.bump(index);
+                if (generation == seenGeneration + 1) seenGeneration = generation;
+            };
+        }
+
+        void append(String record) {
+            StringBuilder sb = new StringBuilder();
+            RecordFrames.append(sb, record);
+            appendRaw(sb.toString());
+        }
+
+        void appendRaw(String lines) {
+            try {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (!parent.exists()) parent.mkdirs();
+                // a blank line, should another process have ended the line already, is skipped on replay
+                if (unterminated) lines = System.lineSeparator() + lines;
+                byte[] bytes = lines.getBytes(StandardCharsets.UTF_8);
+                long lengthBefore = file.length();
+                try (OutputStream out = new FileOutputStream(file, true)) {
+                    out.write(bytes);
+                }
+                unterminated = false;
+                bytesWritten.addAndGet(bytes.length);
+                noteAppend(lengthBefore, bytes.length);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        void writeAll() {
+            try {
+                byte[] content = render(records.values());
+                GroupCommitWriter.replaceFile(file, content);
+                bytesWritten.addAndGet(content.length);
+                noteRewrite(content.length);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private Student parse(RecordReader r) {
+        // Format: id|name|email|password|enrolmentCount|[enrolmentId,mark,subjectId(,code,title)];...
+        if (r.fieldCount('|') < 5) return null;
+        String id = r.nextField('|');
+        String name = r.nextField('|');
+        String email = r.nextField('|');
+        String password = r.nextField('|');
+        int enrolmentCount = r.nextInt('|');
+        Student s = new Student(id, name, email, password);
+        if (enrolmentCount > 0 && !r.atEnd()) {
+            String encoded = r.rest();
+            int shortenable = subjects != null && !isShortForm(encoded) ? shortenableEnrolments(encoded) : 0;
+            if (shortenable > 0) {
+                // decode now so the migration rewrite stores subject references
+                longFormEnrolments.addAndGet(shortenable);
+                for (EnrolledSubject e : decodeEnrolments(encoded)) s.addEnrolment(e);
+            } else {
+                s.setEncodedEnrolments(encoded, this::decodeEnrolments);
+            }
+        }
+        return s;
+    }
+
+    // Every segment is enrolmentId,mark,subjectId (two commas per segment).
+    private static boolean isShortForm(String encoded) {
+        int commas = 0;
+        int segments = 1;
+        for (int i = 0; i < encoded.length(); i++) {
+            char c = encoded.charAt(i);
+            if (c == ',') commas++;
+            else if (c == ';') segments++;
+        }
+        return commas == 2 * segments;
+    }
+
+    private String format(Student s) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(s.getId()).append('|')
+          .append(s.getName()).append('|')
+          .append(s.getEmail()).append('|')
+          .append(s.getPassword()).append('|');
+        String encoded = s.getEncodedEnrolments();
+        if (encoded != null) {
+            // never decoded, so unchanged since it was read: write it back as it was
+            int count = 1;
+            for (int i = 0; i < encoded.length(); i++) if (encoded.charAt(i) == ';') count++;
+            return sb.append(count).append('|').append(encoded).toString();
+        }
+        List<EnrolledSubject> es = s.getEnrolments();
+        sb.append(es.size()).append('|');
+        List<String> entries = new ArrayList<>();
+        for (EnrolledSubject e : es) {
+            Subject subj = e.getSubject();
+            if (canonical(subj) != null) {
+                entries.add(e.getId() + "," + e.getMark() + "," + subj.getId());
+            } else {
+                // no catalogue entry to point at: keep code and title with the enrolment
+                entries.add(e.getId() + "," + e.getMark() + "," + subj.getId() + "," + subj.getCode() + "," + subj.getTitle());
+            }
+        }
+        sb.append(String.join(";", entries));
+        return sb.toString();
+    }
+
+    // A copy of the stored student with the given scalar fields taken from source, as replaying their field records would.
+    private Student withFields(Student stored, Student source, Set<Student.Field> fields) {
+        Student merged = deepCopy(stored);
+        for (Student.Field f : fields) {
+            switch (f) {
+                case NAME: merged.setName(source.getName()); break;
+                case EMAIL: merged.setEmail(source.getEmail()); break;
+                case PASSWORD: merged.changePassword(source.getPassword()); break;
+                default: throw new IllegalArgumentException("No field record for " + f);
+            }
+        }
+        merged.markClean();
+        return merged;
+    }
+
+    private String formatFieldUpdates(Student s, Set<Student.Field> fields) {
+        StringBuilder sb = new StringBuilder();
+        for (Student.Field f : fields) {
+            String prefix = FIELD_UPDATE + s.getId() + '|';
+            switch (f) {
+                case NAME: RecordFrames.append(sb, prefix + "name|" + s.getName()); break;
+                case EMAIL: RecordFrames.append(sb, prefix + "email|" + s.getEmail()); break;
+                case PASSWORD: RecordFrames.append(sb, prefix + "password|" + s.getPassword()); break;
+                default: throw new IllegalArgumentException("No field record for " + f);
+            }
+        }
+        return sb.toString();
+    }
+
+    private byte[] render(Collection<Student> students) {
+        StringBuilder sb = new StringBuilder();
+        for (Student s : students) RecordFrames.append(sb, format(s));
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // The pooled instance for this subject's id, or null when there is no pool or the subject was removed.
+    private Subject canonical(Subject subj) {
+        SubjectStore pool = subjects;
+        return pool == null ? null : pool.findById(subj.getId());
+    }
+
     private Student deepCopy(Student s) {
         Student copy = new Student(s.getId(), s.getName(), s.getEmail(), s.getPassword());
+        if (s.getEncodedEnrolments() != null) {
+            copy.setEncodedEnrolments(s.getEncodedEnrolments(), this::decodeEnrolments);
+            copy.markClean();
+            return copy;
+        }
         for (EnrolledSubject e : s.getEnrolments()) {
             Subject subj = e.getSubject();
-            copy.addEnrolment(new EnrolledSubject(e.getId(), e.getMark(), new Subject(subj.getId(), subj.getCode(), subj.getTitle())));
+            Subject shared = canonical(subj);
+            copy.addEnrolment(new EnrolledSubject(e.getId(), e.getMark(),
+                    shared != null ? shared : new Subject(subj.getId(), subj.getCode(), subj.getTitle())));
         }
+        copy.markClean();
         return copy;
     }
 }
-
-
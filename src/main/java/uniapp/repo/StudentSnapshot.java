@@ -0,0 +1,120 @@
+package uniapp.repo;
+
+import uniapp.model.Student;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * Every student as of one repository version. A snapshot never changes, so a report can take as long as
+ * it likes over one without holding any lock, and all the figures it produces describe the same moment.
+ *
+ * Snapshots are copy-on-write with structural sharing: the students are split by id hash into fixed
+ * buckets of immutable maps, and publishing a write copies only the touched bucket plus the bucket table,
+ * so consecutive versions share all other buckets (and every Student object). Iteration is in id order,
+ * which is sorted once per snapshot on first use.
+ */
+public final class StudentSnapshot {
+    private static final int BUCKETS = 1024;
+
+    private final long version;
+    private final Map<String, Student>[] buckets;
+    private final int size;
+    // stored students are never handed out; readers get copies
+    private final UnaryOperator<Student> copier;
+    private volatile Student[] inIdOrder;
+
+    private StudentSnapshot(long version, Map<String, Student>[] buckets, int size, UnaryOperator<Student> copier) {
+        this.version = version;
+        this.buckets = buckets;
+        this.size = size;
+        this.copier = copier;
+    }
+
+    static StudentSnapshot of(long version, Iterable<Student> students, UnaryOperator<Student> copier) {
+        Map<String, Student>[] buckets = newBuckets();
+        int size = 0;
+        for (Student s : students) {
+            if (buckets[bucketOf(s.getId())].put(s.getId(), s) == null) size++;
+        }
+        return new StudentSnapshot(version, buckets, size, copier);
+    }
+
+    /**
+     * The next version: this one with {@code changes} applied (a null value deletes the id).
+     */
+    StudentSnapshot with(Map<String, Student> changes) {
+        Map<String, Student>[] next = buckets.clone();
+        boolean[] copied = new boolean[BUCKETS];
+        int nextSize = size;
+        for (Map.Entry<String, Student> change : changes.entrySet()) {
+            int b = bucketOf(change.getKey());
+            if (!copied[b]) {
+                next[b] = new HashMap<>(next[b]);
+                copied[b] = true;
+            }
+            Student previous = change.getValue() == null ? next[b].remove(change.getKey()) : next[b].put(change.getKey(), change.getValue());
+            if (previous == null && change.getValue() != null) nextSize++;
+            else if (previous != null && change.getValue() == null) nextSize--;
+        }
+        return new StudentSnapshot(version + 1, next, nextSize, copier);
+    }
+
+    /** The repository version this snapshot was taken at; it increases with every published write. */
+    public long getVersion() { return version; }
+
+    public int count() { return size; }
+
+    public Student findById(String id) {
+        if (id == null) return null;
+        Student s = buckets[bucketOf(id)].get(id);
+        return s == null ? null : copier.apply(s);
+    }
+
+    public List<Student> findAll() {
+        List<Student> result = new ArrayList<>(size);
+        forEach(result::add);
+        return result;
+    }
+
+    /** Copies one student at a time as the stream is consumed. */
+    public Stream<Student> stream() {
+        return Arrays.stream(inIdOrder()).map(copier);
+    }
+
+    public void forEach(Consumer<? super Student> action) {
+        for (Student s : inIdOrder()) action.accept(copier.apply(s));
+    }
+
+    /** Copies students on several threads; collecting the stream still yields id order. */
+    Stream<Student> parallelStream() {
+        return Arrays.stream(inIdOrder()).parallel().map(copier);
+    }
+
+    private Student[] inIdOrder() {
+        Student[] ordered = inIdOrder;
+        if (ordered == null) {
+            ordered = new Student[size];
+            int i = 0;
+            for (Map<String, Student> bucket : buckets) {
+                for (Student s : bucket.values()) ordered[i++] = s;
+            }
+            Arrays.sort(ordered, Comparator.comparing(Student::getId));
+            inIdOrder = ordered;
+        }
+        return ordered;
+    }
+
+    private static int bucketOf(String id) {
+        return Math.floorMod(id.hashCode(), BUCKETS);
+    }
+
+    private static Map<String, Student>[] newBuckets() {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<String, Student>[] buckets = new Map[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) buckets[i] = new HashMap<>();
+        return buckets;
+    }
+}
@@ -0,0 +1,72 @@
+package uniapp.repo;
+
+import uniapp.model.Grade;
+import uniapp.model.Student;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Student storage as seen by the services. Engines ({@link StorageEngine}) differ in where the data lives
+ * and in what they guarantee ({@link #capabilities()}), not in behaviour: every engine hands out copies, so
+ * mutating a returned Student never changes the store until it is written back with {@link #upsert}.
+ */
+public interface StudentStore {
+    Set<StoreCapability> capabilities();
+
+    /** Insert or replace a student. */
+    void upsert(Student student);
+
+    default void save(Student student) { upsert(student); }
+
+    /** Upsert many students in one commit where the engine supports it. */
+    void batchUpsert(Collection<Student> students);
+
+    boolean existsById(String id);
+
+    boolean existsByEmail(String email);
+
+    /** Case-insensitive. */
+    Student findByEmail(String email);
+
+    Student findById(String id);
+
+    List<Student> findAll();
+
+    /** Every student as of one moment; see {@link StoreCapability#SNAPSHOTS} for the cost. */
+    StudentSnapshot snapshot();
+
+    /** Cursor over all students; close it (try-with-resources) when done. */
+    Stream<Student> stream();
+
+    default void forEach(Consumer<? super Student> action) {
+        try (Stream<Student> students = stream()) {
+            students.forEach(action);
+        }
+    }
+
+    /** Up to {@code limit} students with ids greater than {@code afterId} (null for the first page), in id order. */
+    List<Student> page(String afterId, int limit);
+
+    /** Students enrolled in {@code subjectId}, in id order. */
+    List<Student> findBySubject(int subjectId);
+
+    int countBySubject(int subjectId);
+
+    /** Students holding at least one of {@code grades}. */
+    List<Student> findByAnyGrade(Set<Grade> grades);
+
+    /** Students holding none of {@code grades}, including students with no enrolments. */
+    List<Student> findByNoGrade(Set<Grade> grades);
+
+    int countByAnyGrade(Set<Grade> grades);
+
+    int count();
+
+    void deleteById(String id);
+
+    void clearAll();
+}
@@ -0,0 +1,53 @@
+package uniapp.repo;
+
+import uniapp.model.Subject;
+
+import java.util.*;
+
+/**
+ * Read-only lookup tables over one version of a subject catalogue: a slot per id for the ids 1..999 that
+ * AdminService and IdGenerator issue, a case-insensitive code map, and the subjects in catalogue order.
+ * The subject stores publish a new catalog whenever a subject is added, changed or removed, so lookups take
+ * no lock and never touch disk.
+ */
+final class SubjectCatalog {
+    static final int MAX_ID = 999;
+    static final SubjectCatalog EMPTY = new SubjectCatalog(Collections.emptyList(), -1);
+
+    private final Subject[] byId = new Subject[MAX_ID + 1];
+    // ids outside 0..MAX_ID, which only a hand-edited file can hold
+    private final Map<Integer, Subject> outOfRange = new HashMap<>();
+    // lower-cased code -> first subject with it
+    private final Map<String, Subject> byCode = new HashMap<>();
+    private final List<Subject> all;
+    /** The file generation this catalog reflects (-1 if it does not come from a file). */
+    final long generation;
+
+    /** @param subjects the canonical instances, in catalogue order */
+    SubjectCatalog(Collection<Subject> subjects, long generation) {
+        this.all = Collections.unmodifiableList(new ArrayList<>(subjects));
+        this.generation = generation;
+        for (Subject s : all) {
+            if (s.getId() >= 0 && s.getId() <= MAX_ID) byId[s.getId()] = s;
+            else outOfRange.put(s.getId(), s);
+            if (s.getCode() != null) byCode.putIfAbsent(codeKey(s.getCode()), s);
+        }
+    }
+
+    Subject findById(int id) {
+        return id >= 0 && id <= MAX_ID ? byId[id] : outOfRange.get(id);
+    }
+
+    /** Case-insensitive, ignoring surrounding whitespace. */
+    Subject findByCode(String code) {
+        return code == null ? null : byCode.get(codeKey(code));
+    }
+
+    List<Subject> findAll() {
+        return new ArrayList<>(all);
+    }
+
+    private static String codeKey(String code) {
+        return code.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,70 +1,182 @@
 package uniapp.repo;
 
 import uniapp.model.Subject;
+import uniapp.util.RecordReader;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
-public class SubjectRepository {
+/**
+ * Subject catalogue, and the pool of canonical Subject instances; the file-backed {@link SubjectStore}.
+ * There is exactly one Subject object per id: enrolments loaded by {@link StudentRepository} share it, and
+ * re-adding an existing id updates that object in place, so a renamed subject is renamed everywhere.
+ *
+ * Lookups are served from a resident {@link SubjectCatalog} (an array slot per id and a case-insensitive
+ * code map) without taking a lock or reading the file. Each change, and each reload, publishes a new one.
+ *
+ * Other processes sharing the file are noticed through its counter in {@code subjects.data.gen}
+ * ({@link GenerationFile}): when it has moved, the file is re-read into the same canonical instances.
+ * Reading the file takes a shared {@link InterProcessLock} and each change an exclusive one, held from
+ * re-reading the file to writing it back, so concurrent admins never overwrite each other's subjects.
+ */
+public class SubjectRepository implements SubjectStore {
     private final File storageFile;
+    // id -> canonical subject, in file order; changed only under the monitor
+    private final Map<Integer, Subject> pool = new LinkedHashMap<>();
+    private GenerationFile generations;
+    // what readers see: the pool as of the file generation it records; null until first loaded
+    private volatile SubjectCatalog catalog;
+    private final InterProcessLock fileLock;
 
     public SubjectRepository(File storageFile) {
         this.storageFile = storageFile;
+        this.fileLock = InterProcessLock.of(storageFile, 0);
+    }
+
+    public Set<StoreCapability> capabilities() {
+        return EnumSet.of(StoreCapability.PERSISTENT, StoreCapability.DURABLE_WRITES, StoreCapability.CROSS_PROCESS);
     }
 
     public synchronized void add(Subject subject) {
-        List<Subject> all = findAll();
-        all.removeIf(s -> s.getId() == subject.getId());
-        all.add(subject);
-        writeAll(all);
-    }
-
-    public synchronized Subject findById(int id) {
-        for (Subject s : findAll()) if (s.getId() == id) return s;
-        return null;
-    }
-
-    public synchronized List<Subject> findAll() {
-        if (!storageFile.exists()) return new ArrayList<>();
-        List<Subject> result = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(storageFile), StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                // Format: id|code|title
-                String[] p = line.split("\\|", -1);
-                if (p.length < 3) continue;
-                result.add(new Subject(Integer.parseInt(p[0]), p[1], p[2]));
-            }
-        } catch (IOException ex) {
-            throw new UncheckedIOException(ex);
+        addAll(Collections.singletonList(subject));
+    }
+
+    /** Applies every subject to the pool, then rewrites the file once. */
+    public synchronized void addAll(Collection<Subject> subjects) {
+        if (subjects.isEmpty()) return;
+        fileLock.lockExclusive();
+        try {
+            ensureLoaded();
+            for (Subject subject : subjects) put(subject);
+            writeAll();
+        } finally {
+            fileLock.unlock();
         }
-        return result;
+    }
+
+    /** The canonical subject with this id, or null. */
+    public Subject findById(int id) {
+        return current().findById(id);
+    }
+
+    public Subject findByCode(String code) {
+        return current().findByCode(code);
+    }
+
+    public List<Subject> findAll() {
+        return current().findAll();
     }
 
     public synchronized void removeById(int id) {
-        List<Subject> all = findAll();
-        all.removeIf(s -> s.getId() == id);
-        writeAll(all);
+        fileLock.lockExclusive();
+        try {
+            ensureLoaded();
+            pool.remove(id);
+            writeAll();
+        } finally {
+            fileLock.unlock();
+        }
     }
 
-    public synchronized void clearAll() { writeAll(new ArrayList<>()); }
+    public synchronized void clearAll() {
+        fileLock.lockExclusive();
+        try {
+            pool.clear();
+            openGenerations();
+            writeAll();
+        } finally {
+            fileLock.unlock();
+        }
+    }
 
-    private void writeAll(List<Subject> subjects) {
+    // The published catalog if no process has written since it was built (one read of the mapped counter), else a fresh one.
+    private SubjectCatalog current() {
+        SubjectCatalog c = catalog;
+        if (isCurrent(c)) return c;
+        synchronized (this) {
+            return ensureLoaded();
+        }
+    }
+
+    // A non-null catalog implies generations is open: it is published after openGenerations.
+    private boolean isCurrent(SubjectCatalog c) {
+        return c != null && generations.get(0) == c.generation;
+    }
+
+    // Caller holds the monitor.
+    private void put(Subject subject) {
+        Subject canonical = pool.get(subject.getId());
+        if (canonical == null) {
+            pool.put(subject.getId(), new Subject(subject.getId(), subject.getCode(), subject.getTitle()));
+        } else {
+            canonical.setCode(subject.getCode());
+            canonical.setTitle(subject.getTitle());
+        }
+    }
+
+    // Caller holds the monitor.
+    private SubjectCatalog ensureLoaded() {
+        SubjectCatalog c = catalog;
+        if (isCurrent(c)) return c;
+        openGenerations();
+        fileLock.lockShared();
         try {
-            if (!storageFile.getParentFile().exists()) storageFile.getParentFile().mkdirs();
-            try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(storageFile, false), StandardCharsets.UTF_8))) {
-                for (Subject s : subjects) {
-                    bw.write(s.getId() + "|" + s.getCode() + "|" + s.getTitle());
-                    bw.newLine();
+            long generation = generations.get(0);
+            readFile();
+            catalog = new SubjectCatalog(pool.values(), generation);
+        } finally {
+            fileLock.unlock();
+        }
+        return catalog;
+    }
+
+    private void openGenerations() {
+        if (generations == null) generations = new GenerationFile(storageFile, 1);
+    }
+
+    // Reloads keep the canonical instances of surviving ids, so enrolments already pointing at them stay current.
+    private void readFile() {
+        Map<Integer, Subject> fresh = new LinkedHashMap<>();
+        if (storageFile.exists()) {
+            try (RecordReader r = new RecordReader(new InputStreamReader(new FileInputStream(storageFile), StandardCharsets.UTF_8))) {
+                while (r.next()) {
+                    // Format: id|code|title
+                    if (r.fieldCount('|') < 3) continue;
+                    int id = r.nextInt('|');
+                    String code = r.nextField('|');
+                    String title = r.nextField('|');
+                    Subject canonical = pool.get(id);
+                    if (canonical == null) {
+                        canonical = new Subject(id, code, title);
+                    } else {
+                        canonical.setCode(code);
+                        canonical.setTitle(title);
+                    }
+                    fresh.put(id, canonical);
                 }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
             }
+        }
+        pool.clear();
+        pool.putAll(fresh);
+    }
+
+    // Subject writes are rare admin operations, so each one is committed on its own (temp file, fsync, atomic rename).
+    private void writeAll() {
+        StringBuilder sb = new StringBuilder();
+        for (Subject s : pool.values()) {
+            sb.append(s.getId()).append('|').append(s.getCode()).append('|').append(s.getTitle()).append(System.lineSeparator());
+        }
+        try {
+            GroupCommitWriter.replaceFile(storageFile, sb.toString().getBytes(StandardCharsets.UTF_8));
+            SubjectCatalog previous = catalog;
+            long generation = generations.bump(0);
+            // a counter that moved by more than our own bump means another process wrote; the next read reloads
+            catalog = new SubjectCatalog(pool.values(), previous != null && generation == previous.generation + 1 ? generation : -1);
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
         }
     }
 }
-
-
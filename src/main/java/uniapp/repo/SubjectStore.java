@@ -0,0 +1,33 @@
+package uniapp.repo;
+
+import uniapp.model.Subject;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Subject catalogue as seen by the services and by the student stores that resolve enrolments through it.
+ * A store keeps one canonical Subject per id: {@link #add} of an existing id updates that instance in place.
+ */
+public interface SubjectStore {
+    Set<StoreCapability> capabilities();
+
+    /** Insert a subject, or update the canonical instance with the same id. */
+    void add(Subject subject);
+
+    /** {@link #add} every subject, committed together in one write. */
+    void addAll(Collection<Subject> subjects);
+
+    /** The canonical subject with this id, or null. */
+    Subject findById(int id);
+
+    /** The canonical subject with this code, ignoring case and surrounding whitespace, or null. */
+    Subject findByCode(String code);
+
+    List<Subject> findAll();
+
+    void removeById(int id);
+
+    void clearAll();
+}
@@ -0,0 +1,424 @@
+package uniapp.repo;
+
+import uniapp.model.EnrolledSubject;
+import uniapp.model.Grade;
+import uniapp.model.Student;
+
+import java.io.Closeable;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Write-behind in front of another {@link StudentStore}: upserts and deletes return as soon as they are
+ * queued, and a background flusher persists them in batches.
+ *
+ * The queue holds at most one pending change per student id, so repeated updates to one student coalesce
+ * into its latest state and cost one record in the next batch. It is bounded by the number of distinct ids:
+ * a writer that would overflow it waits for the flusher. The flusher lingers briefly after the first change
+ * so a burst (e.g. rapid clicks) lands in one batch, then hands all queued upserts to the delegate's
+ * batchUpsert in one call and applies the queued deletes after it.
+ *
+ * Reads by id see queued and in-flight changes. Every other read waits for the queue to drain first, so it
+ * never sees data older than the caller's own writes. Call {@link #flush()} (or {@link #close()}) before
+ * shutdown: until then, queued writes exist only in memory. A batch that fails with an I/O error is requeued
+ * behind any newer changes and retried, and {@link #flush()} rethrows the failure to whoever waits for it.
+ * Any other failure would only repeat, so the batch is then written one change at a time: changes the
+ * delegate rejects (e.g. a field too long for the binary engine) are dropped and counted, the rest are kept,
+ * and the next {@link #flush()} or {@link #close()} throws the rejection.
+ */
+public class WriteBehindStudentStore implements StudentStore, Closeable {
+    static final int DEFAULT_CAPACITY = 1024;
+    static final long DEFAULT_LINGER_MS = 10;
+    // pause before retrying a batch that failed
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final StudentStore delegate;
+    private final int capacity;
+    private final long lingerMs;
+    private final Thread flusher;
+
+    // id -> latest queued state (null = delete), in first-queued order
+    private Map<String, Student> pending = new LinkedHashMap<>();
+    // the batch the flusher is writing; still visible to reads by id
+    private Map<String, Student> inflight = Collections.emptyMap();
+    private long queued;      // last ticket handed out
+    private long flushed;     // last ticket known to be persisted
+    private RuntimeException failure;
+    private RuntimeException rejection;
+    private boolean flushRequested;
+    private boolean closed;
+
+    private long coalesced;
+    private long flushes;
+    private long flushedRecords;
+    private long failedFlushes;
+    private long rejectedRecords;
+    private int maxQueueDepth;
+    private long lastFlushNanos;
+    private long maxFlushNanos;
+    private long totalFlushNanos;
+
+    public WriteBehindStudentStore(StudentStore delegate) {
+        this(delegate, DEFAULT_CAPACITY, DEFAULT_LINGER_MS);
+    }
+
+    /**
+     * @param capacity most distinct student ids queued before writers wait
+     * @param lingerMs how long the flusher waits after the first queued change for more to arrive
+     */
+    public WriteBehindStudentStore(StudentStore delegate, int capacity, long lingerMs) {
+        if (capacity <= 0) throw new IllegalArgumentException("Queue capacity must be positive");
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.lingerMs = lingerMs;
+        this.flusher = new Thread(this::runFlusher, "student-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /** The delegate's capabilities, less those write-behind gives up: writes return before they are durable. */
+    public Set<StoreCapability> capabilities() {
+        Set<StoreCapability> capabilities = EnumSet.noneOf(StoreCapability.class);
+        capabilities.addAll(delegate.capabilities());
+        capabilities.remove(StoreCapability.DURABLE_WRITES);
+        capabilities.remove(StoreCapability.SNAPSHOTS); // snapshot() waits for the queue to drain
+        capabilities.remove(StoreCapability.CROSS_PROCESS); // other processes see nothing until the flush
+        return capabilities;
+    }
+
+    /** Queue the student's current state. An unchanged stored student queues nothing. */
+    public void upsert(Student student) {
+        batchUpsert(Collections.singletonList(student));
+    }
+
+    /** Queues the whole batch at once, so the flusher never splits it across two delegate batches. */
+    public void batchUpsert(Collection<Student> students) {
+        Map<String, Student> changes = new LinkedHashMap<>();
+        for (Student s : students) {
+            if (!s.isDirty() && existsById(s.getId())) continue;
+            changes.put(s.getId(), queuedCopy(s));
+        }
+        enqueue(changes);
+        for (Student s : students) s.markClean();
+    }
+
+    public void deleteById(String id) {
+        if (id == null) return;
+        enqueue(Collections.singletonMap(id, null));
+    }
+
+    public boolean existsById(String id) {
+        if (id == null) return false;
+        synchronized (this) {
+            if (pending.containsKey(id)) return pending.get(id) != null;
+            if (inflight.containsKey(id)) return inflight.get(id) != null;
+        }
+        return delegate.existsById(id);
+    }
+
+    public Student findById(String id) {
+        if (id == null) return null;
+        synchronized (this) {
+            if (pending.containsKey(id)) return readCopy(pending.get(id));
+            if (inflight.containsKey(id)) return readCopy(inflight.get(id));
+        }
+        return delegate.findById(id);
+    }
+
+    public boolean existsByEmail(String email) {
+        drain();
+        return delegate.existsByEmail(email);
+    }
+
+    public Student findByEmail(String email) {
+        drain();
+        return delegate.findByEmail(email);
+    }
+
+    public List<Student> findAll() {
+        drain();
+        return delegate.findAll();
+    }
+
+    public StudentSnapshot snapshot() {
+        drain();
+        return delegate.snapshot();
+    }
+
+    public Stream<Student> stream() {
+        drain();
+        return delegate.stream();
+    }
+
+    public List<Student> page(String afterId, int limit) {
+        drain();
+        return delegate.page(afterId, limit);
+    }
+
+    public List<Student> findBySubject(int subjectId) {
+        drain();
+        return delegate.findBySubject(subjectId);
+    }
+
+    public int countBySubject(int subjectId) {
+        drain();
+        return delegate.countBySubject(subjectId);
+    }
+
+    public List<Student> findByAnyGrade(Set<Grade> grades) {
+        drain();
+        return delegate.findByAnyGrade(grades);
+    }
+
+    public List<Student> findByNoGrade(Set<Grade> grades) {
+        drain();
+        return delegate.findByNoGrade(grades);
+    }
+
+    public int countByAnyGrade(Set<Grade> grades) {
+        drain();
+        return delegate.countByAnyGrade(grades);
+    }
+
+    public int count() {
+        drain();
+        return delegate.count();
+    }
+
+    /** Changes queued before the call are flushed first, so none of them lands after the clear. */
+    public void clearAll() {
+        drain();
+        delegate.clearAll();
+    }
+
+    /**
+     * Block until every change queued before the call is persisted or dropped.
+     * @throws RuntimeException the I/O failure of a batch that held one of those changes (they stay queued),
+     *         or the delegate's rejection of a change dropped since the last flush
+     */
+    public void flush() {
+        synchronized (this) {
+            drain();
+            if (rejection != null) {
+                RuntimeException rejected = rejection;
+                rejection = null;
+                throw rejected;
+            }
+        }
+    }
+
+    // flush() for reads: waits the same way, but leaves reporting rejected changes to flush() and close().
+    private void drain() {
+        synchronized (this) {
+            long target = queued;
+            long failuresBefore = failedFlushes;
+            if (flushed < target) {
+                flushRequested = true;
+                notifyAll();
+            }
+            while (flushed < target) {
+                if (failedFlushes > failuresBefore) throw failure;
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for flush", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush, then stop the flusher. Writes after close are rejected. If the flush fails, the flusher makes
+     * one last attempt and then stops; whatever is still queued is lost, and the failure is thrown.
+     */
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            try {
+                flusher.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Distinct student ids waiting for the flusher (not counting the batch being written). */
+    public synchronized int queueDepth() { return pending.size(); }
+
+    public synchronized int maxQueueDepth() { return maxQueueDepth; }
+
+    /** Changes folded into an already queued change for the same student. */
+    public synchronized long coalesced() { return coalesced; }
+
+    /** Batches persisted so far. */
+    public synchronized long flushes() { return flushes; }
+
+    /** Student changes persisted so far, after coalescing. */
+    public synchronized long flushedRecords() { return flushedRecords; }
+
+    public synchronized long failedFlushes() { return failedFlushes; }
+
+    /** Changes dropped because the delegate rejected them for a reason other than I/O. */
+    public synchronized long rejectedRecords() { return rejectedRecords; }
+
+    /** Time the delegate took to persist the most recent batch. */
+    public synchronized long lastFlushNanos() { return lastFlushNanos; }
+
+    public synchronized long maxFlushNanos() { return maxFlushNanos; }
+
+    public synchronized long averageFlushNanos() { return flushes == 0 ? 0 : totalFlushNanos / flushes; }
+
+    private synchronized void enqueue(Map<String, Student> changes) {
+        if (changes.isEmpty()) return;
+        if (closed) throw new IllegalStateException("Write-behind store is closed");
+        while (!pending.isEmpty() && pending.size() + newIds(changes) > capacity) {
+            if (!flushRequested) {
+                flushRequested = true; // a full queue is reason enough to flush now
+                notifyAll();
+            }
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for queue space", ex);
+            }
+        }
+        for (Map.Entry<String, Student> c : changes.entrySet()) {
+            boolean known = pending.containsKey(c.getKey());
+            pending.put(c.getKey(), c.getValue());
+            if (known) coalesced++;
+        }
+        maxQueueDepth = Math.max(maxQueueDepth, pending.size());
+        queued++;
+        notifyAll();
+    }
+
+    // Caller holds the monitor.
+    private int newIds(Map<String, Student> changes) {
+        int n = 0;
+        for (String id : changes.keySet()) if (!pending.containsKey(id)) n++;
+        return n;
+    }
+
+    private void runFlusher() {
+        while (true) {
+            Map<String, Student> batch;
+            long ticket;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !closed) wait();
+                    if (pending.isEmpty()) return;
+                    // linger for a burst unless someone is waiting or the queue is full
+                    long deadline = System.currentTimeMillis() + lingerMs;
+                    long left;
+                    while (!flushRequested && !closed && pending.size() < capacity
+                            && (left = deadline - System.currentTimeMillis()) > 0) {
+                        wait(left);
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                batch = pending;
+                ticket = queued;
+                inflight = batch;
+                pending = new LinkedHashMap<>();
+                flushRequested = false;
+                notifyAll(); // room in the queue again
+            }
+            long started = System.nanoTime();
+            // changes that hit an I/O error and are worth retrying
+            Map<String, Student> unwritten = Collections.emptyMap();
+            RuntimeException ioFailure = null;
+            int rejected = 0;
+            try {
+                persist(batch);
+            } catch (UncheckedIOException ex) {
+                unwritten = batch;
+                ioFailure = ex;
+            } catch (RuntimeException ex) {
+                // retrying the batch would fail the same way forever: find the changes at fault
+                unwritten = new LinkedHashMap<>();
+                for (Map.Entry<String, Student> change : batch.entrySet()) {
+                    try {
+                        persist(Collections.singletonMap(change.getKey(), change.getValue()));
+                    } catch (UncheckedIOException io) {
+                        unwritten.put(change.getKey(), change.getValue());
+                        ioFailure = io;
+                    } catch (RuntimeException refused) {
+                        rejected++;
+                        synchronized (this) {
+                            rejectedRecords++;
+                            rejection = refused;
+                        }
+                    }
+                }
+            }
+            if (!unwritten.isEmpty()) {
+                synchronized (this) {
+                    // newer changes to the same students win over the failed ones
+                    Map<String, Student> requeued = new LinkedHashMap<>(unwritten);
+                    requeued.putAll(pending);
+                    pending = requeued;
+                    inflight = Collections.emptyMap();
+                    failure = ioFailure;
+                    failedFlushes++;
+                    flushedRecords += batch.size() - unwritten.size() - rejected;
+                    notifyAll();
+                    if (closed) return; // close() made its last attempt; the failure reaches its caller
+                    try {
+                        wait(RETRY_DELAY_MS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            long elapsed = System.nanoTime() - started;
+            synchronized (this) {
+                inflight = Collections.emptyMap();
+                flushed = Math.max(flushed, ticket);
+                flushes++;
+                flushedRecords += batch.size() - rejected;
+                lastFlushNanos = elapsed;
+                maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+                totalFlushNanos += elapsed;
+                notifyAll();
+            }
+        }
+    }
+
+    // Runs on the flusher without the monitor. The queued copies are never handed out, so the delegate gets them as they are.
+    private void persist(Map<String, Student> batch) {
+        List<Student> upserts = new ArrayList<>(batch.size());
+        List<String> deletes = new ArrayList<>();
+        for (Map.Entry<String, Student> change : batch.entrySet()) {
+            if (change.getValue() == null) deletes.add(change.getKey());
+            else upserts.add(change.getValue());
+        }
+        if (!upserts.isEmpty()) delegate.batchUpsert(upserts);
+        for (String id : deletes) delegate.deleteById(id);
+    }
+
+    // A private copy left dirty, so the delegate writes it in full whatever it already holds.
+    private static Student queuedCopy(Student s) {
+        Student copy = new Student(s.getId(), s.getName(), s.getEmail(), s.getPassword());
+        for (EnrolledSubject e : s.getEnrolments()) copy.addEnrolment(new EnrolledSubject(e.getId(), e.getMark(), e.getSubject()));
+        return copy;
+    }
+
+    // Caller holds the monitor. A clean copy of a queued student for a reader; null for a queued delete.
+    private static Student readCopy(Student queuedState) {
+        if (queuedState == null) return null;
+        Student copy = queuedCopy(queuedState);
+        copy.markClean();
+        return copy;
+    }
+}
@@ -3,10 +3,17 @@ package uniapp.service;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 
+import uniapp.repo.GroupCommitWriter;
+import uniapp.repo.InterProcessLock;
 import uniapp.util.Validator;
 
+/**
+ * The admin account and its lockout state, in admin.data. Updates re-read the file under the exclusive
+ * {@link InterProcessLock} before changing it, so failed attempts from several processes all count.
+ */
 public class AdminAuthService {
     private final File storageFile;
+    private final InterProcessLock fileLock;
     private String username;
     private String password;
     private int failedAttempts;
@@ -17,9 +24,16 @@ public class AdminAuthService {
 
     public AdminAuthService(File storageFile) {
         this.storageFile = storageFile;
-        loadOrInit();
+        this.fileLock = InterProcessLock.of(storageFile, 0);
+        fileLock.lockExclusive();
+        try {
+            loadOrInit();
+        } finally {
+            fileLock.unlock();
+        }
     }
 
+    // Caller holds the exclusive file lock.
     private void loadOrInit() {
         if (!storageFile.exists()) {
             this.username = "admin";
@@ -49,18 +63,27 @@ public class AdminAuthService {
         }
     }
 
+    // Caller holds the exclusive file lock.
     private void save() {
         try {
-            if (!storageFile.getParentFile().exists()) storageFile.getParentFile().mkdirs();
-            try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(storageFile, false), StandardCharsets.UTF_8))) {
-                bw.write(username + "," + password + "," + failedAttempts + "," + lockUntilMs);
-            }
+            String line = username + "," + password + "," + failedAttempts + "," + lockUntilMs;
+            GroupCommitWriter.replaceFile(storageFile, line.getBytes(StandardCharsets.UTF_8));
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
         }
     }
 
-    public boolean login(String username, String password) {
+    public synchronized boolean login(String username, String password) {
+        fileLock.lockExclusive();
+        try {
+            loadOrInit();
+            return attempt(username, password);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private boolean attempt(String username, String password) {
         long now = System.currentTimeMillis();
         if (now < lockUntilMs) {
             return false;
@@ -82,23 +105,33 @@ public class AdminAuthService {
         }
     }
 
-    public void changePassword(String currentPassword, String newPassword) {
+    public synchronized void changePassword(String currentPassword, String newPassword) {
+        fileLock.lockExclusive();
+        try {
+            loadOrInit();
+            applyPasswordChange(currentPassword, newPassword);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private void applyPasswordChange(String currentPassword, String newPassword) {
         if (!this.password.equals(currentPassword)) throw new IllegalArgumentException("Current password incorrect");
         if (!Validator.isValidPassword(newPassword)) throw new IllegalArgumentException("Invalid password format");
         this.password = newPassword;
         save();
     }
 
-    public boolean isLocked() {
+    public synchronized boolean isLocked() {
         return System.currentTimeMillis() < lockUntilMs;
     }
 
-    public int remainingAttempts() {
+    public synchronized int remainingAttempts() {
         if (isLocked()) return 0;
         return Math.max(0, maxAttempts - failedAttempts);
     }
 
-    public long lockedUntilEpochMs() { return lockUntilMs; }
+    public synchronized long lockedUntilEpochMs() { return lockUntilMs; }
 
     private int safeParseInt(String s, int def) {
         try { return Integer.parseInt(s); } catch (Exception ex) { return def; }
@@ -3,65 +3,181 @@ package uniapp.service;
 import uniapp.model.Grade;
 import uniapp.model.Student;
 import uniapp.model.Subject;
-import uniapp.repo.StudentRepository;
-import uniapp.repo.SubjectRepository;
+import uniapp.repo.StudentStore;
+import uniapp.repo.StudentSnapshot;
+import uniapp.repo.SubjectStore;
+import uniapp.util.RecordReader;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class AdminService {
-    private final StudentRepository studentRepository;
-    private final SubjectRepository subjectRepository;
+    // a student passes with at least one enrolment graded P or better
+    private static final Set<Grade> PASS_GRADES = EnumSet.of(Grade.P, Grade.C, Grade.D, Grade.HD);
 
-    public AdminService(StudentRepository studentRepository, SubjectRepository subjectRepository) {
+    private final StudentStore studentRepository;
+    private final SubjectStore subjectRepository;
+
+    public AdminService(StudentStore studentRepository, SubjectStore subjectRepository) {
         this.studentRepository = studentRepository;
         this.subjectRepository = subjectRepository;
     }
 
     public List<Student> viewAllStudents() { return studentRepository.findAll(); }
 
-    public List<Student> viewStudentsByGrade(Grade grade) {
-        return studentRepository.findAll().stream()
-                .filter(s -> s.getEnrolments().stream().anyMatch(e -> e.getGrade() == grade))
-                .collect(Collectors.toList());
+    /** Stream every student one at a time; close it when done. */
+    public Stream<Student> streamStudents() { return studentRepository.stream(); }
+
+    public void forEachStudent(Consumer<? super Student> action) { studentRepository.forEach(action); }
+
+    public int countStudents() { return studentRepository.count(); }
+
+    /** One page of students in id order, starting after {@code afterId} (null for the first page). */
+    public List<Student> pageStudents(String afterId, int limit) { return studentRepository.page(afterId, limit); }
+
+    /** Every student at one version; iterate it for long reports so enrolments are never held up. */
+    public StudentSnapshot snapshot() { return studentRepository.snapshot(); }
+
+    /** {@link #groupByGrade()} computed in one pass over a single snapshot, tagged with its version. */
+    public Report<Map<Grade, List<Student>>> gradeReport() {
+        StudentSnapshot snapshot = studentRepository.snapshot();
+        Map<Grade, List<Student>> map = new EnumMap<>(Grade.class);
+        for (Grade g : Grade.values()) map.put(g, new ArrayList<>());
+        snapshot.forEach(s -> {
+            for (Grade g : gradesOf(s)) map.get(g).add(s);
+        });
+        return new Report<>(snapshot.getVersion(), map);
     }
 
-    public Map<String, List<Student>> categorizePassFail() {
+    /** {@link #categorizePassFail()} computed in one pass over a single snapshot, tagged with its version. */
+    public Report<Map<String, List<Student>>> passFailReport() {
+        StudentSnapshot snapshot = studentRepository.snapshot();
         Map<String, List<Student>> result = new LinkedHashMap<>();
         result.put("PASS", new ArrayList<>());
         result.put("FAIL", new ArrayList<>());
-        for (Student s : studentRepository.findAll()) {
-            boolean pass = s.getEnrolments().stream().anyMatch(e -> e.getGrade() == Grade.P || e.getGrade() == Grade.C || e.getGrade() == Grade.D || e.getGrade() == Grade.HD);
-            (pass ? result.get("PASS") : result.get("FAIL")).add(s);
-        }
+        snapshot.forEach(s -> result.get(gradesOf(s).stream().anyMatch(PASS_GRADES::contains) ? "PASS" : "FAIL").add(s));
+        return new Report<>(snapshot.getVersion(), result);
+    }
+
+    public List<Student> viewStudentsByGrade(Grade grade) {
+        return studentRepository.findByAnyGrade(EnumSet.of(grade));
+    }
+
+    public Map<String, List<Student>> categorizePassFail() {
+        Map<String, List<Student>> result = new LinkedHashMap<>();
+        result.put("PASS", studentRepository.findByAnyGrade(PASS_GRADES));
+        result.put("FAIL", studentRepository.findByNoGrade(PASS_GRADES));
+        return result;
+    }
+
+    /** Same split as {@link #categorizePassFail()}, counted from the grade index without loading any student. */
+    public Map<String, Integer> countPassFail() {
+        int pass = studentRepository.countByAnyGrade(PASS_GRADES);
+        Map<String, Integer> result = new LinkedHashMap<>();
+        result.put("PASS", pass);
+        result.put("FAIL", studentRepository.count() - pass);
         return result;
     }
 
     public Map<Grade, List<Student>> groupByGrade() {
         Map<Grade, List<Student>> map = new EnumMap<>(Grade.class);
-        for (Grade g : Grade.values()) map.put(g, new ArrayList<>());
-        for (Student s : studentRepository.findAll()) {
-            Set<Grade> grades = s.getEnrolments().stream().map(e -> e.getGrade()).collect(java.util.stream.Collectors.toSet());
-            for (Grade g : grades) map.get(g).add(s);
-        }
+        for (Grade g : Grade.values()) map.put(g, studentRepository.findByAnyGrade(EnumSet.of(g)));
+        return map;
+    }
+
+    /** Same grouping as {@link #groupByGrade()}, counted from the grade index without loading any student. */
+    public Map<Grade, Integer> countByGrade() {
+        Map<Grade, Integer> map = new EnumMap<>(Grade.class);
+        for (Grade g : Grade.values()) map.put(g, studentRepository.countByAnyGrade(EnumSet.of(g)));
         return map;
     }
 
+    private static Set<Grade> gradesOf(Student s) {
+        Set<Grade> grades = EnumSet.noneOf(Grade.class);
+        s.getEnrolments().forEach(e -> grades.add(e.getGrade()));
+        return grades;
+    }
+
+    /** Students enrolled in a subject, in id order, from the repository's subject index. */
+    public List<Student> viewRoster(int subjectId) { return studentRepository.findBySubject(subjectId); }
+
+    public int rosterSize(int subjectId) { return studentRepository.countBySubject(subjectId); }
+
     public void removeStudent(String studentId) { studentRepository.deleteById(studentId); }
 
     public void clearAllStudents() { studentRepository.clearAll(); }
 
     public void addSubject(int id, String code, String title) {
-        if (id < 1 || id > 999) throw new IllegalArgumentException("Subject id must be 1..999");
-        if (code == null || code.trim().isEmpty()) throw new IllegalArgumentException("Code is required");
-        if (title == null || title.trim().isEmpty()) throw new IllegalArgumentException("Title is required");
-        for (Subject s : subjectRepository.findAll()) {
-            if (s.getId() == id) throw new IllegalArgumentException("Subject id already exists");
-            if (s.getCode().equalsIgnoreCase(code)) throw new IllegalArgumentException("Subject code already exists");
-        }
+        String error = validateSubject(id, code, title);
+        if (error != null) throw new IllegalArgumentException(error);
         subjectRepository.add(new Subject(id, code.trim(), title.trim()));
     }
 
+    /**
+     * Bulk catalogue import. Reads {@code id,code,title} rows (an optional header row is skipped; the title
+     * may contain commas), checks each with the rules of {@link #addSubject} against the catalogue's id and
+     * code indexes and against the rows before it, and adds every accepted subject in a single commit.
+     * Rejected rows are reported, not thrown.
+     */
+    public ImportResult importSubjects(Reader csv) {
+        long start = System.nanoTime();
+        int rows = 0;
+        List<String> errors = new ArrayList<>();
+        // the first occurrence of an id or code in the file wins
+        Map<Integer, Subject> accepted = new LinkedHashMap<>();
+        Set<String> acceptedCodes = new HashSet<>();
+        try (RecordReader r = new RecordReader(csv)) {
+            int rowNumber = 0;
+            while (r.next()) {
+                rowNumber++;
+                String error;
+                if (r.fieldCount(',') < 3) {
+                    error = "expected id,code,title";
+                } else {
+                    String idField = r.nextField(',').trim();
+                    String code = r.nextField(',').trim();
+                    String title = r.rest().trim();
+                    if (rowNumber == 1 && idField.equalsIgnoreCase("id") && code.equalsIgnoreCase("code")) continue;
+                    int id = parseSubjectId(idField);
+                    error = validateSubject(id, code, title);
+                    if (error == null && accepted.containsKey(id)) error = "Duplicate subject id in file";
+                    if (error == null && !acceptedCodes.add(code.toLowerCase(Locale.ROOT))) error = "Duplicate subject code in file";
+                    if (error == null) accepted.put(id, new Subject(id, code, title));
+                }
+                rows++;
+                if (error != null) errors.add("row " + rowNumber + ": " + error);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        subjectRepository.addAll(accepted.values());
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        return new ImportResult(rows, accepted.size(), errors, elapsedMs);
+    }
+
+    // The rules addSubject enforces, checked against the catalogue's id and code indexes; null if the subject is acceptable.
+    private String validateSubject(int id, String code, String title) {
+        if (id < 1 || id > 999) return "Subject id must be 1..999";
+        if (code == null || code.trim().isEmpty()) return "Code is required";
+        if (title == null || title.trim().isEmpty()) return "Title is required";
+        if (subjectRepository.findById(id) != null) return "Subject id already exists";
+        if (subjectRepository.findByCode(code) != null) return "Subject code already exists";
+        return null;
+    }
+
+    // Anything that is not a number is out of range.
+    private static int parseSubjectId(String field) {
+        try {
+            return Integer.parseInt(field);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
     public void removeSubject(int subjectId) { subjectRepository.removeById(subjectId); }
 
     public List<Subject> listSubjects() { return subjectRepository.findAll(); }
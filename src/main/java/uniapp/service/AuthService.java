@@ -1,16 +1,23 @@
 package uniapp.service;
 
 import uniapp.model.Student;
-import uniapp.repo.StudentRepository;
+import uniapp.repo.StudentStore;
 import uniapp.util.IdGenerator;
+import uniapp.util.RecordReader;
 import uniapp.util.Validator;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.Collectors;
+
 public class AuthService {
-    private final StudentRepository studentRepository;
+    private final StudentStore studentRepository;
     private final IdGenerator idGenerator;
     private StudentAuthService studentAuthService;
 
-    public AuthService(StudentRepository studentRepository, IdGenerator idGenerator) {
+    public AuthService(StudentStore studentRepository, IdGenerator idGenerator) {
         this.studentRepository = studentRepository;
         this.idGenerator = idGenerator;
     }
@@ -30,6 +37,60 @@ public class AuthService {
         return s;
     }
 
+    /**
+     * Bulk registration for term-start onboarding. Reads {@code name,email,password} rows (an optional
+     * header row is skipped), validates them in parallel with the same rules as {@link #register},
+     * rejects emails already registered or repeated in the file, allocates ids in one block and
+     * commits every accepted student in a single write. Rejected rows are reported, not thrown.
+     */
+    public ImportResult importStudents(Reader csv) {
+        long start = System.nanoTime();
+        List<ImportRow> rows = new ArrayList<>();
+        try (RecordReader r = new RecordReader(csv)) {
+            int rowNumber = 0;
+            while (r.next()) {
+                rowNumber++;
+                ImportRow row = new ImportRow(rowNumber);
+                if (r.fieldCount(',') < 3) {
+                    row.error = "expected name,email,password";
+                } else {
+                    row.name = r.nextField(',').trim();
+                    row.email = r.nextField(',').trim();
+                    row.password = r.nextField(',').trim();
+                    if (rowNumber == 1 && row.name.equalsIgnoreCase("name") && row.email.equalsIgnoreCase("email")) continue;
+                }
+                rows.add(row);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        rows.parallelStream().filter(row -> row.error == null).forEach(row -> row.error = validate(row));
+
+        // duplicates are resolved in file order so the first occurrence wins
+        Set<String> seenEmails = new HashSet<>();
+        List<ImportRow> accepted = new ArrayList<>();
+        for (ImportRow row : rows) {
+            if (row.error != null) continue;
+            String key = row.email.toLowerCase(Locale.ROOT);
+            if (!seenEmails.add(key)) row.error = "Duplicate email in file";
+            else if (studentRepository.existsByEmail(row.email)) row.error = "Email already registered";
+            else accepted.add(row);
+        }
+
+        List<Student> students = new ArrayList<>(accepted.size());
+        Iterator<String> ids = allocateStudentIds(accepted.size()).iterator();
+        for (ImportRow row : accepted) students.add(new Student(ids.next(), row.name, row.email, row.password));
+        studentRepository.batchUpsert(students);
+
+        List<String> errors = rows.stream()
+                .filter(row -> row.error != null)
+                .map(row -> "row " + row.row + ": " + row.error)
+                .collect(Collectors.toList());
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        return new ImportResult(rows.size(), students.size(), errors, elapsedMs);
+    }
+
     public Student login(String identifier, String password) {
         Student s = identifier.contains("@") ? studentRepository.findByEmail(identifier) : studentRepository.findById(identifier);
         if (s == null) throw new IllegalArgumentException("User not found");
@@ -45,6 +106,36 @@ public class AuthService {
         }
     }
 
+    // Ids come from the generator in blocks; any id that is already taken is replaced from a further block.
+    private List<String> allocateStudentIds(int count) {
+        Set<String> result = new LinkedHashSet<>(count * 2);
+        int attempts = 0;
+        while (result.size() < count) {
+            if (++attempts > 10) throw new IllegalStateException("Not enough free student ids");
+            for (String id : idGenerator.nextStudentIds(count - result.size())) {
+                if (!studentRepository.existsById(id)) result.add(id);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static String validate(ImportRow row) {
+        if (row.name.isEmpty()) return "Name is required";
+        if (!Validator.isValidEmail(row.email)) return "Invalid email (must end with @university.com)";
+        if (!Validator.isValidPassword(row.password)) return "Invalid password format";
+        return null;
+    }
+
+    private static class ImportRow {
+        final int row;
+        String name;
+        String email;
+        String password;
+        String error;
+
+        ImportRow(int row) { this.row = row; }
+    }
+
     public String issueResetCode(String email) {
         if (studentAuthService == null) throw new IllegalStateException("Reset not configured");
         Student s = studentRepository.findByEmail(email);
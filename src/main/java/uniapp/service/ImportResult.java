@@ -0,0 +1,39 @@
+package uniapp.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many rows were committed, which rows were rejected and why,
+ * and how long the whole import took.
+ */
+public class ImportResult {
+    private final int imported;
+    private final List<String> errors;
+    private final long elapsedMs;
+    private final int rows;
+
+    public ImportResult(int rows, int imported, List<String> errors, long elapsedMs) {
+        this.rows = rows;
+        this.imported = imported;
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        this.elapsedMs = elapsedMs;
+    }
+
+    public int getRows() { return rows; }
+    public int getImported() { return imported; }
+    /** One message per rejected row, e.g. "row 12: Email already registered". */
+    public List<String> getErrors() { return errors; }
+    public long getElapsedMs() { return elapsedMs; }
+
+    public double rowsPerSecond() {
+        return rows * 1000.0 / Math.max(1, elapsedMs);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of %d rows imported, %d rejected, %d ms (%.0f rows/s)",
+                imported, rows, errors.size(), elapsedMs, rowsPerSecond());
+    }
+}
@@ -0,0 +1,23 @@
+package uniapp.service;
+
+/**
+ * A report together with the repository version it was computed at, so two reports can be compared
+ * (same version: same data) and a stale one recognised.
+ */
+public class Report<T> {
+    private final long version;
+    private final T value;
+
+    public Report(long version, T value) {
+        this.version = version;
+        this.value = value;
+    }
+
+    public long getVersion() { return version; }
+    public T getValue() { return value; }
+
+    @Override
+    public String toString() {
+        return "v" + version + ": " + value;
+    }
+}
@@ -4,14 +4,26 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 
+import uniapp.repo.GroupCommitWriter;
+import uniapp.repo.InterProcessLock;
+import uniapp.util.RecordReader;
+
+/**
+ * Login attempts, lockouts and reset codes per student, in student_auth.data. Every update is a
+ * read-modify-write under this object's monitor and the file's exclusive {@link InterProcessLock}, so
+ * concurrent logins in this or another process never lose each other's failed attempts; the file is
+ * replaced atomically, so a reader never sees it half-written.
+ */
 public class StudentAuthService {
     private final File storageFile;
+    private final InterProcessLock fileLock;
     private final int maxAttempts = 5;
     private final long lockDurationMs = 5 * 60 * 1000L; // 5 minutes
 
     public StudentAuthService(File storageFile) {
         this.storageFile = storageFile;
         if (!storageFile.getParentFile().exists()) storageFile.getParentFile().mkdirs();
+        this.fileLock = InterProcessLock.of(storageFile, 0);
     }
 
     public boolean isLocked(String studentIdOrEmail) {
@@ -25,8 +37,16 @@ public class StudentAuthService {
         return Math.max(0, maxAttempts - r.failedAttempts);
     }
 
-    public void noteLoginResult(String studentIdOrEmail, boolean success) {
-        Map<String, Record> map = read();
+    public synchronized void noteLoginResult(String studentIdOrEmail, boolean success) {
+        fileLock.lockExclusive();
+        try {
+            noteLoginResult(read(), studentIdOrEmail, success);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private void noteLoginResult(Map<String, Record> map, String studentIdOrEmail, boolean success) {
         String key = studentIdOrEmail.toLowerCase();
         Record r = map.getOrDefault(key, new Record());
         long now = System.currentTimeMillis();
@@ -46,8 +66,16 @@ public class StudentAuthService {
         write(map);
     }
 
-    public String issueResetCode(String email) {
-        Map<String, Record> map = read();
+    public synchronized String issueResetCode(String email) {
+        fileLock.lockExclusive();
+        try {
+            return issueResetCode(read(), email);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private String issueResetCode(Map<String, Record> map, String email) {
         String key = email.toLowerCase();
         Record r = map.getOrDefault(key, new Record());
         r.resetCode = String.valueOf(100000 + new java.util.Random().nextInt(900000));
@@ -57,8 +85,16 @@ public class StudentAuthService {
         return r.resetCode;
     }
 
-    public boolean verifyAndConsumeResetCode(String email, String code) {
-        Map<String, Record> map = read();
+    public synchronized boolean verifyAndConsumeResetCode(String email, String code) {
+        fileLock.lockExclusive();
+        try {
+            return verifyAndConsumeResetCode(read(), email, code);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private boolean verifyAndConsumeResetCode(Map<String, Record> map, String email, String code) {
         String key = email.toLowerCase();
         Record r = map.getOrDefault(key, new Record());
         long now = System.currentTimeMillis();
@@ -71,44 +107,54 @@ public class StudentAuthService {
         return false;
     }
 
+    // Joins the exclusive hold when called from an update.
     private Map<String, Record> read() {
         Map<String, Record> map = new LinkedHashMap<>();
-        if (!storageFile.exists()) return map;
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(storageFile), StandardCharsets.UTF_8))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                String[] p = line.split("\\|", -1);
-                if (p.length < 4) continue;
+        fileLock.lockShared();
+        try {
+            if (!storageFile.exists()) return map;
+            readInto(map);
+        } finally {
+            fileLock.unlock();
+        }
+        return map;
+    }
+
+    private void readInto(Map<String, Record> map) {
+        try (RecordReader rr = new RecordReader(new InputStreamReader(new FileInputStream(storageFile), StandardCharsets.UTF_8))) {
+            while (rr.next()) {
+                int fields = rr.fieldCount('|');
+                if (fields < 4) continue;
+                String key = rr.nextField('|');
                 Record r = new Record();
-                r.failedAttempts = safeParseInt(p[1], 0);
-                r.lockUntilMs = safeParseLong(p[2], 0L);
-                r.resetCode = p[3].isEmpty() ? null : p[3];
-                r.resetCodeExpireMs = p.length > 4 ? safeParseLong(p[4], 0L) : 0L;
-                map.put(p[0].toLowerCase(), r);
+                r.failedAttempts = rr.nextInt('|', 0);
+                r.lockUntilMs = rr.nextLong('|', 0L);
+                String code = rr.nextField('|');
+                r.resetCode = code.isEmpty() ? null : code;
+                r.resetCodeExpireMs = fields > 4 ? rr.nextLong('|', 0L) : 0L;
+                map.put(key.toLowerCase(), r);
             }
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
         }
-        return map;
     }
 
+    // Caller holds the exclusive file lock.
     private void write(Map<String, Record> map) {
-        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(storageFile, false), StandardCharsets.UTF_8))) {
-            for (Map.Entry<String, Record> e : map.entrySet()) {
-                Record r = e.getValue();
-                bw.write(e.getKey() + "|" + r.failedAttempts + "|" + r.lockUntilMs + "|" + (r.resetCode == null ? "" : r.resetCode) + "|" + r.resetCodeExpireMs);
-                bw.newLine();
-            }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Record> e : map.entrySet()) {
+            Record r = e.getValue();
+            sb.append(e.getKey()).append('|').append(r.failedAttempts).append('|').append(r.lockUntilMs).append('|')
+                    .append(r.resetCode == null ? "" : r.resetCode).append('|').append(r.resetCodeExpireMs)
+                    .append(System.lineSeparator());
+        }
+        try {
+            GroupCommitWriter.replaceFile(storageFile, sb.toString().getBytes(StandardCharsets.UTF_8));
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
         }
     }
 
-    private int safeParseInt(String s, int def) { try { return Integer.parseInt(s); } catch (Exception ex) { return def; } }
-    private long safeParseLong(String s, long def) { try { return Long.parseLong(s); } catch (Exception ex) { return def; } }
-
     private static class Record {
         int failedAttempts;
         long lockUntilMs;
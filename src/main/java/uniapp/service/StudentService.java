@@ -3,8 +3,8 @@ package uniapp.service;
 import uniapp.model.EnrolledSubject;
 import uniapp.model.Student;
 import uniapp.model.Subject;
-import uniapp.repo.StudentRepository;
-import uniapp.repo.SubjectRepository;
+import uniapp.repo.StudentStore;
+import uniapp.repo.SubjectStore;
 import uniapp.util.IdGenerator;
 import uniapp.util.Validator;
 
@@ -12,12 +12,12 @@ import java.util.List;
 import java.util.Random;
 
 public class StudentService {
-    private final StudentRepository studentRepository;
-    private final SubjectRepository subjectRepository;
+    private final StudentStore studentRepository;
+    private final SubjectStore subjectRepository;
     private final IdGenerator idGenerator;
     private final Random random = new Random();
 
-    public StudentService(StudentRepository studentRepository, SubjectRepository subjectRepository, IdGenerator idGenerator) {
+    public StudentService(StudentStore studentRepository, SubjectStore subjectRepository, IdGenerator idGenerator) {
         this.studentRepository = studentRepository;
         this.subjectRepository = subjectRepository;
         this.idGenerator = idGenerator;
@@ -1,5 +1,7 @@
 package uniapp.util;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class IdGenerator {
@@ -18,6 +20,20 @@ public class IdGenerator {
         return String.format("%06d", next);
     }
 
+    /**
+     * Reserve a block of {@code count} student ids in one atomic step; the ids are the same ones
+     * {@code count} calls to {@link #nextStudentId()} would have returned.
+     */
+    public List<String> nextStudentIds(int count) {
+        if (count <= 0) return new ArrayList<>();
+        int start = studentSeq.getAndUpdate(v -> (v + count - 1) % 999999 + 1);
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            ids.add(String.format("%06d", (start + i - 1) % 999999 + 1));
+        }
+        return ids;
+    }
+
     public int nextSubjectId() {
         return subjectSeq.updateAndGet(v -> v >= 999 ? 1 : v + 1);
     }
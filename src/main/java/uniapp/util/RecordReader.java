@@ -0,0 +1,221 @@
+package uniapp.util;
+
+import java.io.*;
+
+/**
+ * Single-pass reader for the delimited .data files.
+ *
+ * Characters are decoded into one reusable buffer and each record (line) is scanned in place: ints and
+ * longs are decoded straight from the buffer and only the String fields the caller asks for are
+ * allocated. This replaces the readLine/trim/split chains, which built a String per line and a String
+ * plus an array per field and nested field.
+ *
+ * Usage: call {@link #next()} to move to the next non-blank record (surrounding whitespace is ignored),
+ * then read its fields left to right. {@link #beginSegment(char)} narrows the cursor to one
+ * sub-record (e.g. one enrolment inside the enrolment list) until {@link #endSegment()}.
+ */
+public final class RecordReader implements Closeable {
+    private final Reader in;
+    private char[] buf = new char[64 * 1024];
+    private int filled;        // chars of buf holding data
+    private int lineStart;     // start of the raw current line in buf
+    private int nextLine;      // start of the line after the current one
+    private boolean eof;
+
+    private int pos;           // read cursor inside the current record
+    private int end;           // end of the current record (or segment)
+    private int recordEnd;     // end of the current record
+    private int segmentEnd = -1;
+
+    public RecordReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Advance to the next non-blank record.
+     * @return false at end of input
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0) return false;
+            int s = lineStart;
+            int e = lineEnd;
+            while (s < e && buf[s] <= ' ') s++;
+            while (e > s && buf[e - 1] <= ' ') e--;
+            if (s < e) {
+                pos = s;
+                end = e;
+                recordEnd = e;
+                segmentEnd = -1;
+                return true;
+            }
+        }
+    }
+
+    /** True once every character of the current record (or segment) has been consumed. */
+    public boolean atEnd() { return pos >= end; }
+
+    /** Consume {@code c} if it is the next character. */
+    public boolean skip(char c) {
+        if (pos < end && buf[pos] == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /** Number of {@code delim}-separated fields left in the current record (or segment). */
+    public int fieldCount(char delim) {
+        int count = 1;
+        for (int i = pos; i < end; i++) if (buf[i] == delim) count++;
+        return count;
+    }
+
+    /** Read the field up to {@code delim} (or the end of the record) and consume the delimiter. */
+    public String nextField(char delim) {
+        int start = pos;
+        int fieldEnd = scanTo(delim);
+        return new String(buf, start, fieldEnd - start);
+    }
+
+    /** Read everything left in the current record (or segment). */
+    public String rest() {
+        String value = new String(buf, pos, end - pos);
+        pos = end;
+        return value;
+    }
+
+    /** Skip the field up to {@code delim} without allocating it. */
+    public void skipField(char delim) {
+        scanTo(delim);
+    }
+
+    /** Decode an int field in place; throws NumberFormatException like Integer.parseInt. */
+    public int nextInt(char delim) {
+        long v = nextLong(delim);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) throw new NumberFormatException("Value out of int range: " + v);
+        return (int) v;
+    }
+
+    public int nextInt(char delim, int fallback) {
+        try {
+            return nextInt(delim);
+        } catch (NumberFormatException ex) {
+            return fallback;
+        }
+    }
+
+    /** Decode a long field in place; throws NumberFormatException like Long.parseLong. */
+    public long nextLong(char delim) {
+        int start = pos;
+        int fieldEnd = scanTo(delim);
+        int i = start;
+        boolean negative = false;
+        if (i < fieldEnd && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        if (i == fieldEnd || fieldEnd - i > 18) throw new NumberFormatException("For input string: \"" + new String(buf, start, fieldEnd - start) + "\"");
+        long v = 0;
+        for (; i < fieldEnd; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("For input string: \"" + new String(buf, start, fieldEnd - start) + "\"");
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    public long nextLong(char delim, long fallback) {
+        try {
+            return nextLong(delim);
+        } catch (NumberFormatException ex) {
+            return fallback;
+        }
+    }
+
+    /** Restrict reads to the text up to the next {@code delim} (or the end of the record). */
+    public void beginSegment(char delim) {
+        int i = pos;
+        while (i < recordEnd && buf[i] != delim) i++;
+        end = i;
+        segmentEnd = i;
+    }
+
+    /** Drop whatever is left of the segment and continue after its delimiter. */
+    public void endSegment() {
+        pos = segmentEnd < recordEnd ? segmentEnd + 1 : recordEnd;
+        end = recordEnd;
+        segmentEnd = -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int scanTo(char delim) {
+        int i = pos;
+        while (i < end && buf[i] != delim) i++;
+        pos = i < end ? i + 1 : i;
+        return i;
+    }
+
+    /**
+     * Locate the next line in the buffer, refilling it as needed.
+     * Sets lineStart/nextLine and returns the end of the line (exclusive), or -1 at end of input.
+     */
+    private int findLineEnd() throws IOException {
+        lineStart = nextLine;
+        int i = lineStart;
+        while (true) {
+            while (i < filled) {
+                char c = buf[i];
+                if (c == '\n' || c == '\r') {
+                    nextLine = i + 1;
+                    if (c == '\r') {
+                        if (nextLine == filled && !eof) {
+                            // need one more char to see whether this is \r\n
+                            int shift = compact();
+                            i -= shift;
+                            fill();
+                            nextLine = i + 1;
+                        }
+                        if (nextLine < filled && buf[nextLine] == '\n') nextLine++;
+                    }
+                    return i;
+                }
+                i++;
+            }
+            if (eof) {
+                if (lineStart == filled) return -1;
+                nextLine = filled;
+                return filled;
+            }
+            i -= compact();
+            fill();
+        }
+    }
+
+    // Move the current line to the start of the buffer (growing it if the line fills it); returns the shift.
+    private int compact() {
+        int shift = lineStart;
+        int remaining = filled - lineStart;
+        if (shift == 0 && remaining == buf.length) {
+            char[] bigger = new char[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, remaining);
+            buf = bigger;
+        } else if (shift > 0) {
+            System.arraycopy(buf, lineStart, buf, 0, remaining);
+        }
+        lineStart = 0;
+        filled = remaining;
+        return shift;
+    }
+
+    private void fill() throws IOException {
+        int n = in.read(buf, filled, buf.length - filled);
+        if (n < 0) eof = true;
+        else filled += n;
+    }
+}
@@ -0,0 +1,111 @@
+package uniapp.repo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uniapp.model.EnrolledSubject;
+import uniapp.model.Student;
+import uniapp.model.Subject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryStudentRepositoryTest {
+    @TempDir
+    File dir;
+
+    private File file() {
+        return new File(dir, "students.bin");
+    }
+
+    // Writes Ann, then renames her: the first version sits in slot 0, the rewrite in slot 1.
+    private void writeAndRename() {
+        try (BinaryStudentRepository repo = new BinaryStudentRepository(file())) {
+            repo.upsert(new Student("000001", "Ann", "ann@uni.edu", "Secret1"));
+            Student ann = repo.findById("000001");
+            ann.setName("Annie");
+            repo.upsert(ann);
+        }
+    }
+
+    // Overwrite the flag byte of a slot, as a crash part-way through a rewrite would leave it.
+    private void setFlag(int slot, int flag) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file(), "rw")) {
+            raf.seek(8);
+            int slotSize = raf.readInt();
+            raf.seek(64 + (long) slot * slotSize);
+            raf.writeByte(flag);
+        }
+    }
+
+    @Test
+    void rewriteSurvivesReopening() {
+        writeAndRename();
+        try (BinaryStudentRepository reopened = new BinaryStudentRepository(file())) {
+            assertEquals("Annie", reopened.findById("000001").getName());
+            assertEquals(1, reopened.count());
+            assertEquals(1, reopened.findAll().size());
+        }
+    }
+
+    @Test
+    void crashBeforeTheOldSlotIsFreedKeepsTheNewerCopy() throws IOException {
+        writeAndRename();
+        setFlag(0, 1); // the old slot is still live
+
+        try (BinaryStudentRepository reopened = new BinaryStudentRepository(file())) {
+            assertEquals("Annie", reopened.findById("000001").getName());
+            assertEquals(1, reopened.count());
+            assertEquals(1, reopened.findAll().size());
+            reopened.upsert(new Student("000002", "Bob", "bob@uni.edu", "Secret2"));
+        }
+        try (BinaryStudentRepository reopened = new BinaryStudentRepository(file())) {
+            assertEquals("Annie", reopened.findById("000001").getName());
+            assertEquals(2, reopened.count());
+        }
+    }
+
+    @Test
+    void crashBeforeTheNewSlotIsCompleteKeepsTheOldVersion() throws IOException {
+        writeAndRename();
+        setFlag(0, 1);
+        setFlag(1, 0); // the rewrite never turned live
+
+        try (BinaryStudentRepository reopened = new BinaryStudentRepository(file())) {
+            assertEquals("Ann", reopened.findById("000001").getName());
+            assertEquals(1, reopened.count());
+        }
+    }
+
+    @Test
+    void rejectedRewriteLeavesTheStoredStudent() {
+        try (BinaryStudentRepository repo = new BinaryStudentRepository(file())) {
+            repo.upsert(new Student("000001", "Ann", "ann@uni.edu", "Secret1"));
+            Student ann = repo.findById("000001");
+            ann.setName("A".repeat(200));
+            assertThrows(IllegalArgumentException.class, () -> repo.upsert(ann));
+            assertEquals("Ann", repo.findById("000001").getName());
+        }
+        try (BinaryStudentRepository reopened = new BinaryStudentRepository(file())) {
+            assertEquals("Ann", reopened.findById("000001").getName());
+        }
+    }
+
+    @Test
+    void studentsReadBackAreCleanAndShareCanonicalSubjects() {
+        InMemorySubjectStore subjects = new InMemorySubjectStore();
+        subjects.add(new Subject(101, "CS101", "Intro to CS"));
+        try (BinaryStudentRepository repo = new BinaryStudentRepository(file(), subjects)) {
+            Student ann = new Student("000001", "Ann", "ann@uni.edu", "Secret1");
+            ann.addEnrolment(new EnrolledSubject(1, 85, new Subject(101, "CS101", "Intro to CS")));
+            repo.upsert(ann);
+
+            Student loaded = repo.findById("000001");
+            assertFalse(loaded.isDirty());
+            assertSame(subjects.findById(101), loaded.getEnrolments().get(0).getSubject());
+            assertSame(subjects.findById(101), repo.findAll().get(0).getEnrolments().get(0).getSubject());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package uniapp.repo;
+
+import org.junit.jupiter.api.Test;
+import uniapp.model.Student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarStudentStoreTest {
+    @Test
+    void repeatedRenamesDoNotGrowTheStringArea() {
+        ColumnarStudentStore store = new ColumnarStudentStore(new InMemorySubjectStore());
+        store.upsert(new Student("000001", "Ann", "ann@uni.edu", "Secret1"));
+        store.upsert(new Student("000002", "Bob", "bob@uni.edu", "Secret2"));
+        long before = store.offHeapBytes();
+        for (int i = 0; i < 100_000; i++) {
+            // alternate lengths so half the rewrites fit the old bytes and half are appended
+            store.upsert(new Student("000001", i % 2 == 0 ? "Ann " + "x".repeat(40) + i : "A" + i, "ann@uni.edu", "Secret1"));
+        }
+        // garbage is compacted before it passes 64 KB, so the area doubles at most once
+        assertTrue(store.offHeapBytes() - before <= 64 * 1024, "grew by " + (store.offHeapBytes() - before));
+        assertEquals("A99999", store.findById("000001").getName());
+        assertEquals("Bob", store.findById("000002").getName());
+        assertEquals("bob@uni.edu", store.findById("000002").getEmail());
+    }
+
+    @Test
+    void compactionKeepsTheStringsOfLiveStudents() {
+        ColumnarStudentStore store = new ColumnarStudentStore(new InMemorySubjectStore());
+        for (int i = 1; i <= 3000; i++) {
+            String id = String.format("%06d", i);
+            store.upsert(new Student(id, "Student " + "y".repeat(20) + i, id + "@uni.edu", "Secret1"));
+        }
+        for (int i = 1; i <= 3000; i += 2) store.deleteById(String.format("%06d", i));
+        store.upsert(new Student("005000", "New", "new@uni.edu", "Secret1")); // compacts the deleted rows' strings
+
+        assertEquals(1501, store.count());
+        assertEquals("Student " + "y".repeat(20) + 2998, store.findById("002998").getName());
+        assertEquals("002998@uni.edu", store.findById("002998").getEmail());
+        assertEquals("new@uni.edu", store.findById("005000").getEmail());
+        assertNull(store.findById("000001"));
+    }
+}
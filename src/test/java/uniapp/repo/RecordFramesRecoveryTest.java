@@ -0,0 +1,127 @@
+package uniapp.repo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uniapp.model.Student;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordFramesRecoveryTest {
+    private static final String ANN = "000001|Ann|ann@uni.edu|Secret1|1|7,85,101,CS101,Intro to CS";
+    private static final String BOB = "000002|Bob|bob@uni.edu|Secret2|0|";
+    private static final String CAT = "000003|Cat|cat@uni.edu|Secret3|0|";
+
+    @TempDir
+    File dir;
+
+    @Test
+    void unframedLastLineWithoutNewlineIsNotTorn() {
+        byte[] legacy = (ANN + "\n" + BOB + "\n" + CAT).getBytes(StandardCharsets.UTF_8);
+        assertTrue(RecordFrames.badLines(ByteBuffer.wrap(legacy), 0).isEmpty());
+    }
+
+    @Test
+    void framedLastLineWithoutNewlineIsTorn() {
+        StringBuilder sb = new StringBuilder();
+        RecordFrames.append(sb, ANN);
+        RecordFrames.append(sb, BOB);
+        String framed = sb.toString();
+        byte[] torn = framed.substring(0, framed.length() - 1).getBytes(StandardCharsets.UTF_8);
+        assertEquals(1, RecordFrames.badLines(ByteBuffer.wrap(torn), 0).size());
+    }
+
+    @Test
+    void legacyFileWithoutFinalNewlineKeepsItsLastStudent() throws IOException {
+        File file = new File(dir, "students.data");
+        write(file, ANN + "\n" + BOB + "\n" + CAT);
+
+        StudentRepository repo = new StudentRepository(file);
+        assertEquals(3, repo.count());
+        assertEquals("Cat", repo.findById("000003").getName());
+        assertTrue(repo.recoveryReports().get(0).isClean());
+        assertTrue(read(file).contains(CAT), "last student must stay in the file");
+
+        assertEquals(3, new StudentRepository(file).count());
+    }
+
+    @Test
+    void appendAfterLegacyLineWithoutNewlineStartsANewLine() throws IOException {
+        File file = new File(dir, "students.data");
+        write(file, ANN + "\n" + BOB + "\n" + CAT);
+
+        StudentRepository repo = new StudentRepository(file, true);
+        repo.upsert(new Student("000004", "Dan", "dan@uni.edu", "Secret4"));
+        Student cat = repo.findById("000003");
+        cat.setName("Cathy");
+        repo.upsert(cat);
+
+        StudentRepository reopened = new StudentRepository(file, true);
+        assertEquals(4, reopened.count());
+        assertEquals("Cathy", reopened.findById("000003").getName());
+        assertEquals("Dan", reopened.findById("000004").getName());
+        assertTrue(reopened.recoveryReports().get(0).isClean());
+    }
+
+    @Test
+    void tornFramedTailIsCutOffAndTheRestKept() throws IOException {
+        File file = new File(dir, "students.data");
+        StringBuilder sb = new StringBuilder();
+        RecordFrames.append(sb, ANN);
+        RecordFrames.append(sb, BOB);
+        String whole = sb.toString();
+        StringBuilder third = new StringBuilder();
+        RecordFrames.append(third, CAT);
+        write(file, whole + third.substring(0, third.length() / 2));
+
+        StudentRepository repo = new StudentRepository(file, true);
+        assertEquals(2, repo.count());
+        assertNull(repo.findById("000003"));
+        RecoveryReport report = repo.recoveryReports().get(0);
+        assertEquals(1, report.getDroppedRecords());
+        assertTrue(report.getTruncatedBytes() > 0);
+        assertEquals(whole, read(file));
+    }
+
+    @Test
+    void corruptFramedLineIsSkippedButLaterLinesReplayed() throws IOException {
+        File file = new File(dir, "students.data");
+        StringBuilder sb = new StringBuilder();
+        RecordFrames.append(sb, ANN);
+        RecordFrames.append(sb, BOB);
+        RecordFrames.append(sb, CAT);
+        write(file, sb.toString().replace("Bob", "Rob"));
+
+        StudentRepository repo = new StudentRepository(file);
+        assertEquals(2, repo.count());
+        assertNull(repo.findById("000002"));
+        assertEquals("Cat", repo.findById("000003").getName());
+        assertEquals(1, repo.recoveryReports().get(0).getDroppedRecords());
+        assertEquals(0, repo.recoveryReports().get(0).getTruncatedBytes());
+    }
+
+    @Test
+    void framedAndUnframedLinesMix() throws IOException {
+        File file = new File(dir, "students.data");
+        StringBuilder sb = new StringBuilder(ANN).append('\n');
+        RecordFrames.append(sb, BOB);
+        write(file, sb + CAT);
+
+        StudentRepository repo = new StudentRepository(file);
+        assertEquals(3, repo.count());
+        assertTrue(repo.recoveryReports().get(0).isClean());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,84 @@
+package uniapp.repo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uniapp.model.Student;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardMigrationTest {
+    @TempDir
+    File dir;
+
+    private File unshardedWithTwoStudents() {
+        File file = new File(dir, "students.data");
+        StudentRepository repo = new StudentRepository(file);
+        repo.upsert(new Student("000001", "Ann", "ann@uni.edu", "Secret1"));
+        repo.upsert(new Student("000002", "Bob", "bob@uni.edu", "Secret2"));
+        return file;
+    }
+
+    @Test
+    void migrationRetiresTheUnshardedFileAndRecordsTheCount() {
+        File file = unshardedWithTwoStudents();
+        StudentRepository sharded = new StudentRepository(file, false, 4);
+        assertEquals(2, sharded.count());
+
+        assertFalse(file.exists());
+        assertTrue(new File(dir, "students.data.bak").exists());
+        assertTrue(new File(dir, "students-3.data").exists());
+        assertEquals(4, StudentRepository.storedShardCount(file));
+    }
+
+    @Test
+    void changesAfterMigrationSurviveReopening() {
+        File file = unshardedWithTwoStudents();
+        StudentRepository sharded = new StudentRepository(file, true, 4);
+        sharded.deleteById("000002");
+        sharded.upsert(new Student("000003", "Cat", "cat@uni.edu", "Secret3"));
+
+        StudentRepository reopened = new StudentRepository(file, true, 4);
+        assertNotNull(reopened.findById("000001"));
+        assertNull(reopened.findById("000002"));
+        assertEquals("Cat", reopened.findById("000003").getName());
+        assertEquals(2, reopened.count());
+    }
+
+    @Test
+    void openingWithAnotherShardCountFails() {
+        File file = unshardedWithTwoStudents();
+        new StudentRepository(file, false, 4).count();
+
+        assertThrows(IllegalStateException.class, () -> new StudentRepository(file).count());
+        assertThrows(IllegalStateException.class, () -> new StudentRepository(file, false, 2).count());
+    }
+
+    @Test
+    void anInterruptedMigrationIsRedoneFromTheUnshardedFile() {
+        File file = unshardedWithTwoStudents();
+        new StudentRepository(file, false, 4).count();
+        // a crash after the count was recorded but before the rename leaves the unsharded file live
+        assertTrue(new File(dir, "students.data.bak").renameTo(file));
+        assertTrue(new File(dir, "students-0.data").delete());
+
+        StudentRepository reopened = new StudentRepository(file, false, 4);
+        assertEquals(2, reopened.count());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    void conversionReadsTheShardedData() {
+        File file = unshardedWithTwoStudents();
+        StudentRepository sharded = new StudentRepository(file, false, 4);
+        sharded.deleteById("000002");
+
+        File binary = new File(dir, "students.bin");
+        assertEquals(1, BinaryStudentRepository.convertFromText(file, binary));
+        try (BinaryStudentRepository converted = new BinaryStudentRepository(binary)) {
+            assertNotNull(converted.findById("000001"));
+            assertNull(converted.findById("000002"));
+        }
+    }
+}
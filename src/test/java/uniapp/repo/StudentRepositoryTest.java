@@ -0,0 +1,75 @@
+package uniapp.repo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uniapp.model.EnrolledSubject;
+import uniapp.model.Student;
+import uniapp.model.Subject;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StudentRepositoryTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void textModeRoundTripsThroughTheFile() {
+        File file = new File(dir, "students.data");
+        StudentRepository repo = new StudentRepository(file);
+        Student ann = new Student("000001", "Ann", "Ann@Uni.edu", "Secret1");
+        ann.addEnrolment(new EnrolledSubject(7, 85, new Subject(101, "CS101", "Intro to CS")));
+        repo.upsert(ann);
+        repo.upsert(new Student("000002", "Bob", "bob@uni.edu", "Secret2"));
+
+        StudentRepository reopened = new StudentRepository(file);
+        Student loaded = reopened.findById("000001");
+        assertEquals("Ann", loaded.getName());
+        assertEquals(85, loaded.getEnrolments().get(0).getMark());
+        assertEquals("CS101", loaded.getEnrolments().get(0).getSubject().getCode());
+        assertEquals("000002", reopened.findByEmail("BOB@uni.edu").getId());
+        assertEquals(2, reopened.count());
+    }
+
+    @Test
+    void logModeReplaysUpdatesAndDeletes() {
+        File file = new File(dir, "students.data");
+        StudentRepository repo = new StudentRepository(file, true);
+        repo.upsert(new Student("000001", "Ann", "ann@uni.edu", "Secret1"));
+        repo.upsert(new Student("000002", "Bob", "bob@uni.edu", "Secret2"));
+        Student ann = repo.findById("000001");
+        ann.setName("Annie");
+        repo.upsert(ann);
+        repo.deleteById("000002");
+
+        StudentRepository reopened = new StudentRepository(file, true);
+        assertEquals("Annie", reopened.findById("000001").getName());
+        assertNull(reopened.findById("000002"));
+        assertFalse(reopened.existsByEmail("bob@uni.edu"));
+    }
+
+    @Test
+    void returnedStudentsAreCopies() {
+        StudentRepository repo = new StudentRepository(new File(dir, "students.data"));
+        repo.upsert(new Student("000001", "Ann", "ann@uni.edu", "Secret1"));
+        repo.findById("000001").setName("Changed");
+        assertEquals("Ann", repo.findById("000001").getName());
+        assertFalse(repo.findById("000001").isDirty());
+    }
+
+    @Test
+    void findAllAndStreamAreInIdOrder() {
+        for (int shards : new int[] {1, 4}) {
+            StudentRepository repo = new StudentRepository(new File(dir, "students" + shards + ".data"), false, shards);
+            for (String id : new String[] {"000300", "000007", "000123", "000042", "000999"}) {
+                repo.upsert(new Student(id, "S" + id, id + "@uni.edu", "Secret1"));
+            }
+            List<String> expected = List.of("000007", "000042", "000123", "000300", "000999");
+            assertEquals(expected, repo.findAll().stream().map(Student::getId).collect(Collectors.toList()));
+            assertEquals(expected, repo.stream().map(Student::getId).collect(Collectors.toList()));
+        }
+    }
+}